@@ -0,0 +1,287 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api;
+
+import com.github.beelzebu.coins.api.storage.StorageExecutor;
+import java.util.OptionalDouble;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Non-blocking version of {@link CoinsAPI}, every method runs the operation in the storage executor and returns a
+ * future that is completed with the result.
+ *
+ * <p> Dependent stages added with {@link CompletableFuture#thenApply} or {@link CompletableFuture#thenCompose} run in
+ * the storage thread that completed the future, and methods of this class called from a storage thread run directly
+ * in that thread, so operations can be composed without going back to the executor queue.
+ *
+ * @author Beelzebu
+ * @see CoinsAPI#async()
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class AsyncCoinsAPI {
+
+    private final StorageExecutor executor;
+
+    AsyncCoinsAPI(StorageExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @see CoinsAPI#getCoins(String)
+     */
+    public CompletableFuture<Double> getCoins(@Nonnull String name) {
+        return supply(() -> CoinsAPI.getCoins(name));
+    }
+
+    /**
+     * Get the coins of a player by his UUID, if the player is cached the returned future is already completed.
+     *
+     * @see CoinsAPI#getCoins(UUID)
+     */
+    public CompletableFuture<Double> getCoins(@Nonnull UUID uuid) {
+        OptionalDouble cached = CoinsAPI.getPlugin().getCache().getCoins(uuid);
+        if (cached.isPresent()) {
+            return CompletableFuture.completedFuture(cached.getAsDouble());
+        }
+        return supply(() -> CoinsAPI.getCoins(uuid));
+    }
+
+    /**
+     * @see CoinsAPI#getCoinsString(String)
+     */
+    public CompletableFuture<String> getCoinsString(@Nonnull String name) {
+        return supply(() -> CoinsAPI.getCoinsString(name));
+    }
+
+    /**
+     * @see CoinsAPI#getCoinsString(UUID)
+     */
+    public CompletableFuture<String> getCoinsString(@Nonnull UUID uuid) {
+        return supply(() -> CoinsAPI.getCoinsString(uuid));
+    }
+
+    /**
+     * @see CoinsAPI#addCoins(String, double, boolean)
+     */
+    public CompletableFuture<CoinsResponse> addCoins(@Nonnull String name, double coins, boolean multiply) {
+        return supply(() -> CoinsAPI.addCoins(name, coins, multiply));
+    }
+
+    /**
+     * @see CoinsAPI#addCoins(UUID, double, boolean)
+     */
+    public CompletableFuture<CoinsResponse> addCoins(@Nonnull UUID uuid, double coins, boolean multiply) {
+        return supply(() -> CoinsAPI.addCoins(uuid, coins, multiply));
+    }
+
+    /**
+     * @see CoinsAPI#addCoins(UUID, double, boolean, String)
+     */
+    public CompletableFuture<CoinsResponse> addCoins(@Nonnull UUID uuid, double coins, boolean multiply, @Nullable String cause) {
+        return supply(() -> CoinsAPI.addCoins(uuid, coins, multiply, cause));
+    }
+
+    /**
+     * @see CoinsAPI#takeCoins(String, double)
+     */
+    public CompletableFuture<CoinsResponse> takeCoins(@Nonnull String name, double coins) {
+        return supply(() -> CoinsAPI.takeCoins(name, coins));
+    }
+
+    /**
+     * @see CoinsAPI#takeCoins(UUID, double)
+     */
+    public CompletableFuture<CoinsResponse> takeCoins(@Nonnull UUID uuid, double coins) {
+        return supply(() -> CoinsAPI.takeCoins(uuid, coins));
+    }
+
+    /**
+     * @see CoinsAPI#takeCoins(UUID, double, String)
+     */
+    public CompletableFuture<CoinsResponse> takeCoins(@Nonnull UUID uuid, double coins, @Nullable String cause) {
+        return supply(() -> CoinsAPI.takeCoins(uuid, coins, cause));
+    }
+
+    /**
+     * @see CoinsAPI#resetCoins(String)
+     */
+    public CompletableFuture<CoinsResponse> resetCoins(@Nonnull String name) {
+        return supply(() -> CoinsAPI.resetCoins(name));
+    }
+
+    /**
+     * @see CoinsAPI#resetCoins(UUID)
+     */
+    public CompletableFuture<CoinsResponse> resetCoins(@Nonnull UUID uuid) {
+        return supply(() -> CoinsAPI.resetCoins(uuid));
+    }
+
+    /**
+     * @see CoinsAPI#resetCoins(UUID, String)
+     */
+    public CompletableFuture<CoinsResponse> resetCoins(@Nonnull UUID uuid, @Nullable String cause) {
+        return supply(() -> CoinsAPI.resetCoins(uuid, cause));
+    }
+
+    /**
+     * @see CoinsAPI#setCoins(String, double)
+     */
+    public CompletableFuture<CoinsResponse> setCoins(@Nonnull String name, double coins) {
+        return supply(() -> CoinsAPI.setCoins(name, coins));
+    }
+
+    /**
+     * @see CoinsAPI#setCoins(UUID, double)
+     */
+    public CompletableFuture<CoinsResponse> setCoins(@Nonnull UUID uuid, double coins) {
+        return supply(() -> CoinsAPI.setCoins(uuid, coins));
+    }
+
+    /**
+     * @see CoinsAPI#setCoins(UUID, double, String)
+     */
+    public CompletableFuture<CoinsResponse> setCoins(@Nonnull UUID uuid, double coins, @Nullable String cause) {
+        return supply(() -> CoinsAPI.setCoins(uuid, coins, cause));
+    }
+
+    /**
+     * @see CoinsAPI#payCoins(String, String, double)
+     */
+    public CompletableFuture<CoinsResponse> payCoins(@Nonnull String from, @Nonnull String to, double amount) {
+        return supply(() -> CoinsAPI.payCoins(from, to, amount));
+    }
+
+    /**
+     * @see CoinsAPI#payCoins(UUID, UUID, double)
+     */
+    public CompletableFuture<CoinsResponse> payCoins(@Nonnull UUID from, @Nonnull UUID to, double amount) {
+        return supply(() -> CoinsAPI.payCoins(from, to, amount));
+    }
+
+    /**
+     * @see CoinsAPI#payCoins(UUID, UUID, double, String)
+     */
+    public CompletableFuture<CoinsResponse> payCoins(@Nonnull UUID from, @Nonnull UUID to, double amount, @Nullable String cause) {
+        return supply(() -> CoinsAPI.payCoins(from, to, amount, cause));
+    }
+
+    /**
+     * @see CoinsAPI#prefetch(UUID, String)
+     */
+    public CompletableFuture<Boolean> prefetch(@Nonnull UUID uuid, @Nonnull String name) {
+        return supply(() -> CoinsAPI.prefetch(uuid, name));
+    }
+
+    /**
+     * @see CoinsAPI#endSession(UUID, String)
+     */
+    public CompletableFuture<Boolean> endSession(@Nonnull UUID uuid, @Nullable String destination) {
+        return supply(() -> CoinsAPI.endSession(uuid, destination));
+    }
+
+    /**
+     * @see CoinsAPI#isindb(String)
+     */
+    public CompletableFuture<Boolean> isindb(@Nonnull String name) {
+        return supply(() -> CoinsAPI.isindb(name));
+    }
+
+    /**
+     * @see CoinsAPI#isindb(UUID)
+     */
+    public CompletableFuture<Boolean> isindb(@Nonnull UUID uuid) {
+        return supply(() -> CoinsAPI.isindb(uuid));
+    }
+
+    /**
+     * @see CoinsAPI#getTopPlayers(int)
+     */
+    public CompletableFuture<CoinsUser[]> getTopPlayers(int top) {
+        return supply(() -> CoinsAPI.getTopPlayers(top));
+    }
+
+    /**
+     * @see CoinsAPI#createPlayer(String, UUID)
+     */
+    public CompletableFuture<CoinsResponse> createPlayer(@Nonnull String name, UUID uuid) {
+        return supply(() -> CoinsAPI.createPlayer(name, uuid));
+    }
+
+    /**
+     * @see CoinsAPI#createPlayer(String, UUID, double)
+     */
+    public CompletableFuture<CoinsResponse> createPlayer(@Nonnull String name, UUID uuid, double balance) {
+        return supply(() -> CoinsAPI.createPlayer(name, uuid, balance));
+    }
+
+    /**
+     * @see CoinsAPI#getMultiplier(int)
+     */
+    public CompletableFuture<Multiplier> getMultiplier(int id) {
+        return supply(() -> CoinsAPI.getMultiplier(id));
+    }
+
+    /**
+     * @see CoinsAPI#createMultiplier(UUID, int, int, String, MultiplierType)
+     */
+    public CompletableFuture<Multiplier> createMultiplier(UUID uuid, int amount, int minutes, String server, MultiplierType type) {
+        return supply(() -> CoinsAPI.createMultiplier(uuid, amount, minutes, server, type));
+    }
+
+    /**
+     * @see CoinsAPI#createMultiplier(int, int, String, MultiplierType)
+     */
+    public CompletableFuture<Multiplier> createMultiplier(int amount, int minutes, String server, MultiplierType type) {
+        return supply(() -> CoinsAPI.createMultiplier(amount, minutes, server, type));
+    }
+
+    private <T> CompletableFuture<T> supply(Supplier<T> operation) {
+        if (executor.inExecutor()) { // we're already in a storage thread, don't wait for another one
+            try {
+                return CompletableFuture.completedFuture(operation.get());
+            } catch (Exception ex) {
+                return failed(ex);
+            }
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(operation.get());
+                } catch (Exception ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    private static <T> CompletableFuture<T> failed(Exception ex) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(ex);
+        return future;
+    }
+}
@@ -18,19 +18,32 @@
  */
 package com.github.beelzebu.coins.api;
 
+import com.github.beelzebu.coins.api.cache.BalanceSnapshot;
+import com.github.beelzebu.coins.api.cache.BalanceUpdate;
 import com.github.beelzebu.coins.api.cache.CacheProvider;
+import com.github.beelzebu.coins.api.cache.CacheType;
+import com.github.beelzebu.coins.api.cache.ExistenceCache;
 import com.github.beelzebu.coins.api.plugin.CoinsBootstrap;
 import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
+import com.github.beelzebu.coins.api.storage.LedgerWriter;
+import com.github.beelzebu.coins.api.storage.StorageExecutor;
 import com.github.beelzebu.coins.api.utils.CoinsEntry;
 import com.github.beelzebu.coins.api.utils.CoinsSet;
 import com.github.beelzebu.coins.api.utils.UUIDUtil;
+import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.text.DecimalFormat;
 import java.util.Collection;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.OptionalDouble;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -45,7 +58,21 @@ public final class CoinsAPI {
     private static final DecimalFormat DF = new DecimalFormat("#.#");
     private static final CoinsEntry<CoinsSet<CoinsUser>, Long> CACHED_TOP = new CoinsEntry<>(new CoinsSet<>(), -1L);
     private static final long TOP_CACHE_MILLIS = 30000;
+    private static final int STORAGE_QUEUE_SIZE = 1024;
+    private static final int LEDGER_QUEUE_SIZE = 10000;
+    private static final int LEDGER_BATCH_SIZE = 500;
+    private static final int LEDGER_FLUSH_MILLIS = 1000;
+    private static final ExistenceCache EXISTENCE_CACHE = new ExistenceCache();
+    private static final ThreadLocal<LedgerTransaction> LEDGER_TRANSACTION = new ThreadLocal<>();
+    private static final String BALANCE_SNAPSHOT_FILE = "balances.dat";
+    private static final double NO_FLOOR = -Double.MAX_VALUE;
+    private static final Set<UUID> PENDING_VERIFICATIONS = ConcurrentHashMap.newKeySet();
     private static CoinsPlugin<? extends CoinsBootstrap> PLUGIN = null;
+    private static StorageExecutor STORAGE_EXECUTOR = null;
+    private static AsyncCoinsAPI ASYNC = null;
+    private static BalanceSnapshot BALANCE_SNAPSHOT = null;
+    private static LedgerWriter LEDGER_WRITER = null;
+    private static long BALANCE_SNAPSHOT_MAX_AGE = 0;
 
     private CoinsAPI() {
     }
@@ -65,22 +92,51 @@ public final class CoinsAPI {
     }
 
     /**
-     * Get the coins of a Player by his UUID.
+     * Get the coins of a Player by his UUID. Right after the server starts the balance may come from the balance
+     * snapshot, which can be outdated, so this must only be used to display the balance, changes to the balance are
+     * always calculated from the storage.
      *
      * @param uuid Player to get the coins.
      * @return coins of the player
      */
     public static double getCoins(@Nonnull UUID uuid) {
         OptionalDouble optionalCoins = PLUGIN.getCache().getCoins(uuid);
-        if (!optionalCoins.isPresent()) { // send coins to other servers and cache
+        if (optionalCoins.isPresent()) {
+            return optionalCoins.getAsDouble();
+        }
+        if (BALANCE_SNAPSHOT != null) {
+            OptionalDouble snapshotCoins = BALANCE_SNAPSHOT.getCoins(uuid, BALANCE_SNAPSHOT_MAX_AGE);
+            if (snapshotCoins.isPresent()) { // never cached, it may be outdated until it is verified against the storage
+                verifySnapshotCoins(uuid, snapshotCoins.getAsDouble());
+                return snapshotCoins.getAsDouble();
+            }
+        }
+        return getStoredCoins(uuid);
+    }
+
+    /**
+     * Get the coins of a player from the cache or the storage, but never from the balance snapshot, this must be used
+     * to read the balance before changing it.
+     *
+     * @param uuid Player to get the coins.
+     * @return coins of the player
+     */
+    private static double getStoredCoins(@Nonnull UUID uuid) {
+        OptionalDouble optionalCoins = PLUGIN.getCache().getCoins(uuid);
+        if (optionalCoins.isPresent()) {
+            return optionalCoins.getAsDouble();
+        }
+        return PLUGIN.getStorageProvider().unitOfWork(() -> {
+            // send coins to other servers and cache
             double coins = PLUGIN.getStorageProvider().getCoins(uuid);
+            PLUGIN.getStorageProvider().releaseUnitOfWork();
             PLUGIN.getMessagingService().publishUser(uuid, coins);
             PLUGIN.getCache().updatePlayer(uuid, coins);
-        }
-        // try again to get coins from cache, otherwise fallback to database
-        return PLUGIN.getCache().getCoins(uuid).orElseGet(() -> {
-            PLUGIN.debug("Getting coins from storage for: '" + uuid + "', because player isn't in cache.");
-            return PLUGIN.getStorageProvider().getCoins(uuid);
+            // try again to get coins from cache, otherwise fallback to database
+            return PLUGIN.getCache().getCoins(uuid).orElseGet(() -> {
+                PLUGIN.debug("Getting coins from storage for: '%s', because player isn't in cache.", uuid);
+                return PLUGIN.getStorageProvider().getCoins(uuid);
+            });
         });
     }
 
@@ -141,26 +197,40 @@ public final class CoinsAPI {
      * @return {@link CoinsResponse} Containing all data for this operation.
      */
     public static CoinsResponse addCoins(@Nonnull UUID uuid, double coins, boolean multiply) {
-        if (!isindb(uuid)) {
-            return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Unknown player", "%target%", uuid.toString());
-        }
-        double finalCoins = coins;
-        if (multiply && !getUsableMultipliers(uuid).isEmpty()) {
-            int multiplyTotal = getUsableMultipliers(uuid).stream().mapToInt(multiplier -> multiplier.getData().getAmount()).sum();
-            finalCoins *= Math.max(multiplyTotal, 1);
-            for (String perm : PLUGIN.getBootstrap().getPermissions(uuid)) {
-                if (perm.startsWith("coins.multiplier.x")) {
-                    try {
-                        int i = Integer.parseInt(perm.split("coins.multiplier.x")[1]);
-                        finalCoins *= i;
-                        break;
-                    } catch (NumberFormatException ignore) {
+        return addCoins(uuid, coins, multiply, null);
+    }
+
+    /**
+     * Add coins to a player by his UUID, selecting if the multipliers should be used to calculate the coins.
+     *
+     * @param uuid     Player UUID to add the coins.
+     * @param coins    Coins to add.
+     * @param multiply Multiply coins if there are any active multipliers
+     * @param cause    Reason for this change, recorded in the transaction ledger, may be null.
+     * @return {@link CoinsResponse} Containing all data for this operation.
+     */
+    public static CoinsResponse addCoins(@Nonnull UUID uuid, double coins, boolean multiply, @Nullable String cause) {
+        return PLUGIN.getStorageProvider().unitOfWork(() -> {
+            if (!isindb(uuid)) {
+                return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Unknown player", "%target%", uuid.toString());
+            }
+            double finalCoins = coins;
+            if (multiply && !getUsableMultipliers(uuid).isEmpty()) {
+                int multiplyTotal = getUsableMultipliers(uuid).stream().mapToInt(multiplier -> multiplier.getData().getAmount()).sum();
+                finalCoins *= Math.max(multiplyTotal, 1);
+                for (String perm : PLUGIN.getBootstrap().getPermissions(uuid)) {
+                    if (perm.startsWith("coins.multiplier.x")) {
+                        try {
+                            int i = Integer.parseInt(perm.split("coins.multiplier.x")[1]);
+                            finalCoins *= i;
+                            break;
+                        } catch (NumberFormatException ignore) {
+                        }
                     }
                 }
             }
-        }
-        finalCoins += getCoins(uuid);
-        return setCoins(uuid, finalCoins);
+            return changeCoins(uuid, finalCoins, NO_FLOOR, cause);
+        });
     }
 
     /**
@@ -171,7 +241,11 @@ public final class CoinsAPI {
      * @return {@link CoinsResponse}
      */
     public static CoinsResponse takeCoins(@Nonnull String name, double coins) {
-        return setCoins(UUIDUtil.getUniqueId(name), getCoins(name) - coins);
+        UUID uuid = UUIDUtil.getUniqueId(name);
+        if (uuid == null) {
+            return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Unknown player", "%target%", name);
+        }
+        return takeCoins(uuid, coins);
     }
 
     /**
@@ -182,7 +256,73 @@ public final class CoinsAPI {
      * @return {@link CoinsResponse}
      */
     public static CoinsResponse takeCoins(@Nonnull UUID uuid, double coins) {
-        return setCoins(uuid, getCoins(uuid) - coins);
+        return takeCoins(uuid, coins, null);
+    }
+
+    /**
+     * Take coins of a player by his UUID.
+     *
+     * @param uuid  The UUID of the player to take the coins.
+     * @param coins Coins to take from the player.
+     * @param cause Reason for this change, recorded in the transaction ledger, may be null.
+     * @return {@link CoinsResponse}
+     */
+    public static CoinsResponse takeCoins(@Nonnull UUID uuid, double coins, @Nullable String cause) {
+        return changeCoins(uuid, -coins, NO_FLOOR, cause);
+    }
+
+    /**
+     * Add coins to the balance of a player with {@link CacheProvider#addCoins(UUID, double, double)}, so changes made
+     * at the same time by other threads or servers sharing the cache are never lost, and then write the new balance to
+     * the storage. If the player isn't cached the balance is calculated from the storage instead, but if the result of
+     * the cache is unknown this fails, because the coins may still be added by the cache.
+     *
+     * @param uuid  The UUID of the player to change the coins.
+     * @param coins Coins to add, negative to take coins.
+     * @param floor Min balance allowed after the change.
+     * @param cause Reason for this change, recorded in the transaction ledger, may be null.
+     * @return {@link CoinsResponse}
+     */
+    private static CoinsResponse changeCoins(@Nonnull UUID uuid, double coins, double floor, @Nullable String cause) {
+        return PLUGIN.getStorageProvider().unitOfWork(() -> {
+            if (!isindb(uuid)) {
+                return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Unknown player", "%target%", uuid.toString());
+            }
+            double current = getStoredCoins(uuid); // caches the balance if it isn't cached yet
+            if (uuid.equals(MultiplierData.SERVER_UUID)) {
+                return setCoins(uuid, current + coins, cause);
+            }
+            if (Double.isNaN(coins) || Double.isInfinite(current + coins)) {
+                PLUGIN.log("An API call tried to exceed the max amount of coins that a account can handle.");
+                PLUGIN.log(PLUGIN.getStackTrace(new IllegalArgumentException()));
+                return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Max value exceeded");
+            }
+            BalanceUpdate update = PLUGIN.getCache().addCoins(uuid, coins, floor);
+            switch (update.getStatus()) {
+                case NOT_CACHED: {
+                    double stored = getStoredCoins(uuid);
+                    if (stored + coins < floor) {
+                        return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.No Coins");
+                    }
+                    return setCoins(uuid, stored + coins, cause);
+                }
+                case REJECTED:
+                    return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.No Coins");
+                case UNKNOWN:
+                    PLUGIN.log("Can't know if the balance of " + uuid + " was changed by " + coins + " coins in the cache, the change may be applied later.");
+                    return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Database");
+                default:
+                    break;
+            }
+            CoinsResponse response = writeCoins(uuid, update.getBalance(), update.getBalance() - coins, cause);
+            if (!response.isSuccess()) { // undo the change in the cache, other changes made since then are kept
+                BalanceUpdate undo = PLUGIN.getCache().addCoins(uuid, -coins, NO_FLOOR);
+                if (undo.getStatus() != BalanceUpdate.Status.UPDATED) {
+                    PLUGIN.log("Can't undo a change of " + coins + " coins for " + uuid + " in the cache after the storage failed, his cached balance may be wrong.");
+                }
+            }
+            return response;
+        });
     }
 
     /**
@@ -192,7 +332,7 @@ public final class CoinsAPI {
      * @return {@link CoinsResponse}
      */
     public static CoinsResponse resetCoins(@Nonnull String name) {
-        return setCoins(UUIDUtil.getUniqueId(name), PLUGIN.getConfig().getDouble("General.Starting Coins", 0));
+        return setCoins(UUIDUtil.getUniqueId(name), PLUGIN.getConfig().getStartingCoins());
     }
 
     /**
@@ -202,7 +342,18 @@ public final class CoinsAPI {
      * @return {@link CoinsResponse}
      */
     public static CoinsResponse resetCoins(@Nonnull UUID uuid) {
-        return setCoins(uuid, PLUGIN.getConfig().getDouble("General.Starting Coins", 0));
+        return resetCoins(uuid, null);
+    }
+
+    /**
+     * Reset the coins of a player by his UUID.
+     *
+     * @param uuid  The UUID of the player to reset the coins.
+     * @param cause Reason for this change, recorded in the transaction ledger, may be null.
+     * @return {@link CoinsResponse}
+     */
+    public static CoinsResponse resetCoins(@Nonnull UUID uuid, @Nullable String cause) {
+        return setCoins(uuid, PLUGIN.getConfig().getStartingCoins(), cause);
     }
 
     /**
@@ -224,20 +375,64 @@ public final class CoinsAPI {
      * @return {@link CoinsResponse}
      */
     public static CoinsResponse setCoins(@Nonnull UUID uuid, double coins) {
-        if (uuid.equals(MultiplierData.SERVER_UUID) && coins != 0) {
-            return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Can't set balance for multipliers account to any value different to 0");
-        }
-        if (isindb(uuid)) {
-            if (Double.isNaN(coins) || Double.isInfinite(coins) || new BigDecimal(getCoins(uuid) + coins).compareTo(new BigDecimal(Double.MAX_VALUE)) > 0) {
-                PLUGIN.log("An API call tried to exceed the max amount of coins that a account can handle.");
-                PLUGIN.log(PLUGIN.getStackTrace(new IllegalArgumentException()));
-                return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Max value exceeded");
+        return setCoins(uuid, coins, null);
+    }
+
+    /**
+     * Set the coins of a player by his UUID.
+     *
+     * @param uuid  The UUID of the player to set the coins.
+     * @param coins Coins to set.
+     * @param cause Reason for this change, recorded in the transaction ledger, may be null.
+     * @return {@link CoinsResponse}
+     */
+    public static CoinsResponse setCoins(@Nonnull UUID uuid, double coins, @Nullable String cause) {
+        return PLUGIN.getStorageProvider().unitOfWork(() -> {
+            if (uuid.equals(MultiplierData.SERVER_UUID) && coins != 0) {
+                return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Can't set balance for multipliers account to any value different to 0");
             }
-            PLUGIN.getMessagingService().publishUser(uuid, coins, getCoins(uuid));
-            return PLUGIN.getStorageProvider().setCoins(uuid, coins);
-        } else {
-            return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Unknown player", "%target%", uuid.toString());
+            if (isindb(uuid)) {
+                if (Double.isNaN(coins) || Double.isInfinite(coins) || new BigDecimal(getStoredCoins(uuid) + coins).compareTo(new BigDecimal(Double.MAX_VALUE)) > 0) {
+                    PLUGIN.log("An API call tried to exceed the max amount of coins that a account can handle.");
+                    PLUGIN.log(PLUGIN.getStackTrace(new IllegalArgumentException()));
+                    return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Max value exceeded");
+                }
+                double oldCoins = getStoredCoins(uuid);
+                CoinsResponse response = writeCoins(uuid, coins, oldCoins, cause);
+                if (response.isSuccess()) {
+                    PLUGIN.getCache().updatePlayer(uuid, coins);
+                }
+                return response;
+            } else {
+                return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Unknown player", "%target%", uuid.toString());
+            }
+        });
+    }
+
+    /**
+     * Write a new balance to the storage and, if it was written, send it to other servers and record the change in the
+     * ledger.
+     *
+     * @param uuid     The UUID of the player to set the coins.
+     * @param coins    New balance of the player.
+     * @param oldCoins Balance of the player before this change.
+     * @param cause    Reason for this change, recorded in the transaction ledger, may be null.
+     * @return {@link CoinsResponse}
+     */
+    private static CoinsResponse writeCoins(@Nonnull UUID uuid, double coins, double oldCoins, @Nullable String cause) {
+        CoinsResponse response = PLUGIN.getStorageProvider().setCoins(uuid, coins);
+        PLUGIN.getStorageProvider().releaseUnitOfWork();
+        if (!response.isSuccess()) { // other servers must not cache a balance that wasn't stored
+            return response;
+        }
+        PLUGIN.getMessagingService().publishUser(uuid, coins, oldCoins);
+        if (LEDGER_WRITER != null) {
+            LedgerTransaction transaction = LEDGER_TRANSACTION.get();
+            UUID transactionId = transaction != null ? transaction.id : UUID.randomUUID();
+            int leg = transaction != null ? transaction.nextLeg++ : 0;
+            LEDGER_WRITER.record(new LedgerEntry(transactionId, leg, uuid, coins - oldCoins, coins, cause, getServerName(), System.currentTimeMillis()));
         }
+        return response;
     }
 
     /**
@@ -271,28 +466,118 @@ public final class CoinsAPI {
      * @return {@link CoinsResponse}
      */
     public static CoinsResponse payCoins(@Nonnull UUID from, @Nonnull UUID to, double amount) {
-        Objects.requireNonNull(from, "from UUID can't be null");
-        Objects.requireNonNull(to, "to UUID can't be null");
-        if (from == MultiplierData.SERVER_UUID || to == MultiplierData.SERVER_UUID) {
-            return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Can't pay from or to server account.");
-        }
-        if (getCoins(from) >= amount) {
-            CoinsResponse takeResponse = takeCoins(from, amount);
-            if (takeResponse.isSuccess()) {
-                CoinsResponse addResponse = addCoins(to, amount, false);
-                if (addResponse.isSuccess()) {
-                    return addResponse;
+        return payCoins(from, to, amount, null);
+    }
+
+    /**
+     * Pay coins to another player.
+     *
+     * @param from   The player to get the coins.
+     * @param to     The player to pay.
+     * @param amount The amount of coins to pay.
+     * @param cause  Reason for this payment, recorded in the transaction ledger, may be null.
+     * @return {@link CoinsResponse}
+     */
+    public static CoinsResponse payCoins(@Nonnull UUID from, @Nonnull UUID to, double amount, @Nullable String cause) {
+        boolean outer = LEDGER_TRANSACTION.get() == null;
+        if (outer) { // all changes of this payment are recorded with the same transaction id
+            LEDGER_TRANSACTION.set(new LedgerTransaction());
+        }
+        try {
+            return transferCoins(from, to, amount, cause);
+        } finally {
+            if (outer) {
+                LEDGER_TRANSACTION.remove();
+            }
+        }
+    }
+
+    private static CoinsResponse transferCoins(@Nonnull UUID from, @Nonnull UUID to, double amount, @Nullable String cause) {
+        return PLUGIN.getStorageProvider().unitOfWork(() -> {
+            Objects.requireNonNull(from, "from UUID can't be null");
+            Objects.requireNonNull(to, "to UUID can't be null");
+            if (from == MultiplierData.SERVER_UUID || to == MultiplierData.SERVER_UUID) {
+                return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Can't pay from or to server account.");
+            }
+            if (getStoredCoins(from) >= amount) {
+                CoinsResponse takeResponse = changeCoins(from, -amount, 0, cause); // fails if he spent the coins meanwhile
+                if (takeResponse.isSuccess()) {
+                    CoinsResponse addResponse = addCoins(to, amount, false, cause);
+                    if (addResponse.isSuccess()) {
+                        return addResponse;
+                    } else {
+                        CoinsResponse failedResponse = addResponse;
+                        PLUGIN.debug(() -> "Pay failed in transaction: \n" +
+                                "from: '" + from + "' to: '" + to + "' ammount: " + amount + " response: '" + failedResponse.getResponse() + ":" + failedResponse.getMessage(""));
+                        CoinsResponse refundResponse = addCoins(from, amount, false, cause);
+                        if (refundResponse.isFailed()) { // the payer lost the coins, this must be fixed by hand
+                            PLUGIN.log("Can't give back " + amount + " coins to " + from + " after a failed payment to " + to + ": " + refundResponse.getMessage(""));
+                        }
+                        PLUGIN.debug(() -> "Adding coins back to: '" + from + "' response: " + refundResponse.getResponse() + ":" + refundResponse.getMessage(""));
+                    }
                 } else {
-                    PLUGIN.debug("Pay failed in transaction: \n" +
-                            "from: '" + from + "' to: '" + to + "' ammount: " + amount + " response: '" + addResponse.getResponse() + ":" + addResponse.getMessage(""));
-                    addResponse = addCoins(from, amount, false);
-                    PLUGIN.debug("Adding coins back to: '" + from + "' response: " + addResponse.getResponse() + ":" + addResponse.getMessage(""));
+                    return takeResponse;
                 }
-            } else {
-                return takeResponse;
             }
+            return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.No Coins");
+        });
+    }
+
+    /**
+     * Load a player into the cache before he joins, this is intended to be called from an async pre-login event, so
+     * the first read of the balance after the player joins doesn't query the storage. The player is created if he
+     * doesn't exist, or his name and last login are updated, and his balance and multipliers are read using a single
+     * connection to the storage.
+     *
+     * @param uuid UUID of the player that is joining.
+     * @param name name of the player that is joining.
+     * @return true if the player was loaded, false if the storage failed.
+     */
+    public static boolean prefetch(@Nonnull UUID uuid, @Nonnull String name) {
+        Objects.requireNonNull(uuid, "UUID can't be null");
+        Objects.requireNonNull(name, "Name can't be null");
+        return PLUGIN.getStorageProvider().unitOfWork(() -> {
+            double coins = PLUGIN.getStorageProvider().loginPlayer(uuid, name, PLUGIN.getConfig().getStartingCoins());
+            if (coins < 0) {
+                return false;
+            }
+            Collection<Multiplier> multipliers = PLUGIN.getStorageProvider().getMultipliersFor(uuid);
+            PLUGIN.getStorageProvider().releaseUnitOfWork();
+            PLUGIN.getCache().updatePlayer(uuid, coins);
+            PLUGIN.getMessagingService().publishUser(uuid, coins);
+            multipliers.stream().filter(Objects::nonNull).forEach(PLUGIN.getCache()::addMultiplier);
+            PLUGIN.debug("Prefetched %s with a balance of %s", name, coins);
+            return true;
+        });
+    }
+
+    /**
+     * End the session of a player in this server, this should be called when the player quits or moves to other
+     * server. Any balance change that wasn't written to the storage yet is written, the player is removed from the
+     * cache of this server and, if he is moving to other server, his latest balance is sent to that server so it is
+     * cached before he joins. If the cache is shared between all servers, like {@link CacheType#REDIS}, the player is
+     * kept in the cache and no balance is sent, so changes made by other servers meanwhile aren't overwritten.
+     *
+     * @param uuid        UUID of the player that is leaving.
+     * @param destination name of the server where the player is going, or null if he is leaving the network.
+     * @return true if all pending changes were written, false if some changes couldn't be written to the storage.
+     * @see #prefetch(UUID, String)
+     */
+    public static boolean endSession(@Nonnull UUID uuid, @Nullable String destination) {
+        Objects.requireNonNull(uuid, "UUID can't be null");
+        boolean flushed = PLUGIN.getStorageProvider().flushPlayer(uuid);
+        if (!flushed) {
+            PLUGIN.log("The balance of " + uuid + " couldn't be written to the storage before he left the server.");
         }
-        return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.No Coins");
+        if (PLUGIN.getCache().getCacheType() == CacheType.REDIS) {
+            return flushed;
+        }
+        OptionalDouble coins = PLUGIN.getCache().getCoins(uuid);
+        PLUGIN.getCache().removePlayer(uuid);
+        if (destination != null && coins.isPresent()) {
+            PLUGIN.getMessagingService().publishHandoff(uuid, coins.getAsDouble(), PLUGIN.getMessagingService().nextHandoffSequence(uuid), destination);
+        }
+        return flushed;
     }
 
     /**
@@ -303,15 +588,26 @@ public final class CoinsAPI {
      * @return true if the player exists in the storageProvider or false if not.
      */
     public static boolean isindb(@Nonnull String name) {
-        UUID uuid = UUIDUtil.getUniqueId(name);
-        if (uuid != null && PLUGIN.getCache().getCoins(uuid).isPresent()) { // If the player is in the cache it should be in the storageProvider.
-            return true;
-        }
-        boolean exists = PLUGIN.getStorageProvider().isindb(name);
-        if (!exists && PLUGIN.getBootstrap().isOnline(name)) {
-            return createPlayer(name, uuid).isSuccess();
-        }
-        return exists;
+        return PLUGIN.getStorageProvider().unitOfWork(() -> {
+            UUID uuid = UUIDUtil.getUniqueId(name);
+            if (uuid != null && PLUGIN.getCache().getCoins(uuid).isPresent()) { // If the player is in the cache it should be in the storageProvider.
+                return true;
+            }
+            boolean online = PLUGIN.getBootstrap().isOnline(name);
+            if (!online && EXISTENCE_CACHE.isMissing(name)) {
+                return false;
+            }
+            boolean exists = PLUGIN.getStorageProvider().isindb(name);
+            if (!exists && online) {
+                return createPlayer(name, uuid).isSuccess();
+            }
+            if (exists) {
+                EXISTENCE_CACHE.addPlayer(null, name);
+            } else {
+                EXISTENCE_CACHE.markMissing(name);
+            }
+            return exists;
+        });
     }
 
     /**
@@ -321,14 +617,25 @@ public final class CoinsAPI {
      * @return true if the player exists in the storageProvider or false if not.
      */
     public static boolean isindb(@Nonnull UUID uuid) {
-        if (PLUGIN.getCache().getCoins(uuid).isPresent()) { // If the player is in the cache it should be in the storageProvider.
-            return true;
-        }
-        boolean exists = PLUGIN.getStorageProvider().isindb(uuid);
-        if (!exists && PLUGIN.getBootstrap().isOnline(uuid)) {
-            return createPlayer(PLUGIN.getName(uuid, false), uuid).isSuccess();
-        }
-        return exists;
+        return PLUGIN.getStorageProvider().unitOfWork(() -> {
+            if (PLUGIN.getCache().getCoins(uuid).isPresent()) { // If the player is in the cache it should be in the storageProvider.
+                return true;
+            }
+            boolean online = PLUGIN.getBootstrap().isOnline(uuid);
+            if (!online && EXISTENCE_CACHE.isMissing(uuid)) {
+                return false;
+            }
+            boolean exists = PLUGIN.getStorageProvider().isindb(uuid);
+            if (!exists && online) {
+                return createPlayer(UUIDUtil.getName(uuid, false), uuid).isSuccess();
+            }
+            if (exists) {
+                EXISTENCE_CACHE.addPlayer(uuid, null);
+            } else {
+                EXISTENCE_CACHE.markMissing(uuid);
+            }
+            return exists;
+        });
     }
 
     /**
@@ -357,7 +664,7 @@ public final class CoinsAPI {
      * @param uuid The uuid of the user.
      */
     public static CoinsResponse createPlayer(@Nonnull String name, UUID uuid) {
-        return createPlayer(name, uuid, PLUGIN.getConfig().getDouble("General.Starting Coins", 0));
+        return createPlayer(name, uuid, PLUGIN.getConfig().getStartingCoins());
     }
 
     /**
@@ -406,7 +713,7 @@ public final class CoinsAPI {
     public static Multiplier createMultiplier(UUID uuid, int amount, int minutes, String server, MultiplierType type) {
         MultiplierData multiplierData;
         if (uuid != null) {
-            multiplierData = new MultiplierData(uuid, PLUGIN.getName(uuid, false), amount, minutes, type);
+            multiplierData = new MultiplierData(uuid, UUIDUtil.getName(uuid, false), amount, minutes, type);
         } else {
             multiplierData = new MultiplierData(amount, minutes, type);
         }
@@ -536,16 +843,55 @@ public final class CoinsAPI {
      */
     public static String getServerName() {
         Objects.requireNonNull(PLUGIN.getMultipliersConfig(), "multipliers config can't be null");
-        return PLUGIN.getMultipliersConfig().getString("Server name", "default").toLowerCase();
+        return PLUGIN.getMultipliersConfig().getServerName();
     }
 
     public static CoinsPlugin<? extends CoinsBootstrap> getPlugin() {
         return PLUGIN;
     }
 
+    /**
+     * Get the non-blocking version of this API, all methods return a {@link java.util.concurrent.CompletableFuture}
+     * completed in the storage executor, so they can be safely called from the main thread of the server.
+     *
+     * @return async version of this API.
+     */
+    public static AsyncCoinsAPI async() {
+        if (ASYNC == null) {
+            throw new IllegalStateException("Plugin wasn't set yet");
+        }
+        return ASYNC;
+    }
+
+    /**
+     * Get the cache used to know which players exist in the storage without querying it.
+     *
+     * @return existence cache.
+     */
+    public static ExistenceCache getExistenceCache() {
+        return EXISTENCE_CACHE;
+    }
+
+    /**
+     * Get the executor used to run storage operations asynchronously.
+     *
+     * @return storage executor.
+     */
+    public static StorageExecutor getStorageExecutor() {
+        return STORAGE_EXECUTOR;
+    }
+
     public static void setPlugin(@Nonnull CoinsPlugin<? extends CoinsBootstrap> plugin) {
         if (PLUGIN == null) {
             PLUGIN = plugin;
+            STORAGE_EXECUTOR = StorageExecutor.create(plugin, plugin.getStorageProvider().getMaxConcurrency(), STORAGE_QUEUE_SIZE);
+            ASYNC = new AsyncCoinsAPI(STORAGE_EXECUTOR);
+            if (plugin.getConfig().getBoolean("General.Ledger.Enabled", false)) {
+                LEDGER_WRITER = new LedgerWriter(plugin, plugin.getStorageProvider(),
+                        plugin.getConfig().getInt("General.Ledger.Queue Size", LEDGER_QUEUE_SIZE),
+                        plugin.getConfig().getInt("General.Ledger.Batch Size", LEDGER_BATCH_SIZE),
+                        plugin.getConfig().getInt("General.Ledger.Flush Millis", LEDGER_FLUSH_MILLIS));
+            }
             plugin.getBootstrap().scheduleAsync(plugin.getCache().getMultiplierPoller(), CacheProvider.POLLER_INTERVAL_SECONDS * 20); // we must multiply it by 20 because interval is in ticks
             CoinsResponse create = createPlayer(MultiplierData.SERVER_NAME, MultiplierData.SERVER_UUID, 0);
             if (create.isFailed()) {
@@ -558,12 +904,130 @@ public final class CoinsAPI {
                 plugin.log("An error has occurred while setting balance to 0 for server multipliers account in the database.");
                 plugin.log(set.getMessage(""));
             }
+            if (plugin.getConfig().getBoolean("Cache.Existence Filter.Enabled", false)) {
+                seedExistenceCache();
+            }
+            openBalanceSnapshot();
         } else {
             throw new IllegalStateException("Plugin was already set");
         }
     }
 
     public static void deletePlugin() {
+        if (LEDGER_WRITER != null) {
+            LEDGER_WRITER.shutdown();
+            LEDGER_WRITER = null;
+        }
+        if (STORAGE_EXECUTOR != null) {
+            STORAGE_EXECUTOR.shutdown();
+            STORAGE_EXECUTOR = null;
+        }
+        ASYNC = null;
+        if (BALANCE_SNAPSHOT != null) {
+            BALANCE_SNAPSHOT.close();
+            BALANCE_SNAPSHOT = null;
+        }
         PLUGIN = null;
+        EXISTENCE_CACHE.clear();
+        UUIDUtil.clear();
+    }
+
+    private static void seedExistenceCache() {
+        EXISTENCE_CACHE.startSeeding();
+        try {
+            STORAGE_EXECUTOR.execute(() -> {
+                AtomicLong players = new AtomicLong();
+                boolean read = PLUGIN.getStorageProvider().forEachPlayer(user -> {
+                    EXISTENCE_CACHE.seed(user.getUniqueId(), user.getName());
+                    players.incrementAndGet();
+                });
+                if (!read || players.get() == 0) { // at least the server account must exist, so the storage failed
+                    EXISTENCE_CACHE.cancelSeeding();
+                    return;
+                }
+                EXISTENCE_CACHE.finishSeeding();
+                PLUGIN.debug("Existence cache was seeded with %s players from the storage.", players.get());
+            });
+        } catch (RejectedExecutionException ex) {
+            EXISTENCE_CACHE.cancelSeeding();
+            PLUGIN.log("Can't seed the existence cache, all lookups for unknown players will query the storage.");
+        }
+    }
+
+    private static void openBalanceSnapshot() {
+        if (!PLUGIN.getConfig().getBoolean("Cache.Snapshot.Enabled", false)) {
+            return;
+        }
+        BalanceSnapshot snapshot = new BalanceSnapshot(new File(PLUGIN.getBootstrap().getDataFolder(), BALANCE_SNAPSHOT_FILE));
+        try {
+            if (snapshot.open()) {
+                PLUGIN.debug("Balance snapshot was opened, balances will be verified against the storage after they are used.");
+            }
+        } catch (IOException ex) {
+            PLUGIN.log("Can't open the balance snapshot, balances will be read from the storage.");
+            PLUGIN.debug(ex);
+        }
+        BALANCE_SNAPSHOT_MAX_AGE = TimeUnit.MINUTES.toMillis(PLUGIN.getConfig().getInt("Cache.Snapshot.Max Age Minutes", 1440));
+        BALANCE_SNAPSHOT = snapshot;
+        int interval = Math.max(1, PLUGIN.getConfig().getInt("Cache.Snapshot.Interval Minutes", 10));
+        PLUGIN.getBootstrap().scheduleAsync(() -> writeBalanceSnapshot(snapshot), interval * 60 * 20); // interval is in ticks
+    }
+
+    private static void writeBalanceSnapshot(BalanceSnapshot snapshot) {
+        if (PLUGIN == null || BALANCE_SNAPSHOT != snapshot) {
+            return;
+        }
+        try {
+            int players = snapshot.write(PLUGIN.getStorageProvider());
+            if (players >= 0) {
+                PLUGIN.debug("Balance snapshot was written with %s players.", players);
+            }
+        } catch (IOException ex) {
+            PLUGIN.log("An error has occurred while writing the balance snapshot.");
+            PLUGIN.debug(ex);
+        }
+    }
+
+    /**
+     * Read the balance of a player from the storage in the background and cache it, so next lookups don't use the
+     * snapshot. Only one verification per player is queued at a time.
+     */
+    private static void verifySnapshotCoins(UUID uuid, double snapshotCoins) {
+        if (!PENDING_VERIFICATIONS.add(uuid)) { // already queued
+            return;
+        }
+        try {
+            STORAGE_EXECUTOR.execute(() -> {
+                try {
+                    if (PLUGIN.getCache().getCoins(uuid).isPresent()) { // already read from the storage or changed
+                        return;
+                    }
+                    double coins = PLUGIN.getStorageProvider().getCoins(uuid);
+                    if (coins < 0) {
+                        return;
+                    }
+                    if (coins != snapshotCoins) {
+                        PLUGIN.debug("Balance snapshot for %s was outdated, using the balance from the storage.", uuid);
+                    }
+                    if (!PLUGIN.getCache().getCoins(uuid).isPresent()) {
+                        PLUGIN.getCache().updatePlayer(uuid, coins);
+                    }
+                } finally {
+                    PENDING_VERIFICATIONS.remove(uuid);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            PENDING_VERIFICATIONS.remove(uuid);
+            PLUGIN.debug("Can't verify the balance snapshot for %s, it will be read from the storage on next lookup.", uuid);
+        }
+    }
+
+    /**
+     * Transaction id shared by all balance changes of a single operation, like both sides of a payment.
+     */
+    private static final class LedgerTransaction {
+
+        private final UUID id = UUID.randomUUID();
+        private int nextLeg = 0;
     }
 }
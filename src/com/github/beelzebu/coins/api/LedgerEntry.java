@@ -0,0 +1,125 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api;
+
+import java.util.Objects;
+import java.util.UUID;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A balance change recorded in the transaction ledger. Changes made by the same operation, like both sides of a
+ * payment, share the transaction id and are told apart by their leg.
+ *
+ * @author Beelzebu
+ */
+public final class LedgerEntry {
+
+    /**
+     * Cause used for balance changes that don't specify one.
+     */
+    public static final String UNKNOWN_CAUSE = "unknown";
+    private final UUID transactionId;
+    private final int leg;
+    private final UUID uniqueId;
+    private final double delta;
+    private final double balance;
+    private final String cause;
+    private final String server;
+    private final long timestamp;
+
+    public LedgerEntry(@Nonnull UUID transactionId, @Nonnull UUID uniqueId, double delta, double balance, @Nullable String cause, @Nonnull String server, long timestamp) {
+        this(transactionId, 0, uniqueId, delta, balance, cause, server, timestamp);
+    }
+
+    public LedgerEntry(@Nonnull UUID transactionId, int leg, @Nonnull UUID uniqueId, double delta, double balance, @Nullable String cause, @Nonnull String server, long timestamp) {
+        Objects.requireNonNull(transactionId, "transactionId can't be null");
+        Objects.requireNonNull(uniqueId, "uniqueId can't be null");
+        Objects.requireNonNull(server, "server can't be null");
+        this.transactionId = transactionId;
+        this.leg = leg;
+        this.uniqueId = uniqueId;
+        this.delta = delta;
+        this.balance = balance;
+        this.cause = cause != null ? cause : UNKNOWN_CAUSE;
+        this.server = server;
+        this.timestamp = timestamp;
+    }
+
+    public UUID getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * Get the position of this change in his transaction, starting at 0.
+     *
+     * @return leg of this change.
+     */
+    public int getLeg() {
+        return leg;
+    }
+
+    public UUID getUniqueId() {
+        return uniqueId;
+    }
+
+    /**
+     * Get the amount of coins added to the balance, negative if coins were taken.
+     *
+     * @return difference between the new and old balance.
+     */
+    public double getDelta() {
+        return delta;
+    }
+
+    /**
+     * Get the balance after this change.
+     *
+     * @return new balance.
+     */
+    public double getBalance() {
+        return balance;
+    }
+
+    public String getCause() {
+        return cause;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "LedgerEntry{" +
+                "transactionId=" + transactionId +
+                ", leg=" + leg +
+                ", uniqueId=" + uniqueId +
+                ", delta=" + delta +
+                ", balance=" + balance +
+                ", cause='" + cause + '\'' +
+                ", server='" + server + '\'' +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
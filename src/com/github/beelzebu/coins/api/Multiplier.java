@@ -22,23 +22,31 @@ import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
 import com.github.beelzebu.coins.api.utils.StringUtils;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Handle Coins multipliers.
  *
  * @author Beelzebu
  */
+@JsonAdapter(Multiplier.Adapter.class)
 public final class Multiplier {
 
+    private static final AtomicReferenceFieldUpdater<Multiplier, State> STATE_UPDATER = AtomicReferenceFieldUpdater.newUpdater(Multiplier.class, State.class, "state");
     private int id;
     private String server;
     private final MultiplierData data;
-    private long start = 0;
-    private long queueStart = 0;
+    private volatile State state = State.IDLE;
 
     public Multiplier(String server, MultiplierData data) {
         this.data = data;
@@ -63,36 +71,33 @@ public final class Multiplier {
 
     public boolean isEnabled() {
         getAndCheckRemainingMillis();
-        return _isEnabled();
-    }
-
-    private boolean _isEnabled() {
-        return start != 0;
+        return getState().isEnabled();
     }
 
     public boolean isQueue() {
-        return queueStart != 0;
+        return getState().isQueue();
     }
 
-    void setQueue(boolean queue) {
-        if (queue) {
-            queueStart = System.currentTimeMillis();
-        } else {
-            queueStart = 0;
-        }
+    /**
+     * Check if this multiplier was already enabled and then disabled, expired multipliers can't be enabled again.
+     *
+     * @return <i>true</i> if this multiplier is expired, <i>false</i> otherwise.
+     */
+    public boolean isExpired() {
+        return getState().getStatus() == Status.EXPIRED;
     }
 
     public long getStart() {
-        return start;
+        return getState().getStart();
     }
 
     public long getQueueStart() {
-        return queueStart;
+        return getState().getQueueStart();
     }
 
     public static Multiplier fromJson(String multiplier) {
         Objects.requireNonNull(multiplier, "Tried to load a null Multiplier");
-        CoinsAPI.getPlugin().debug("Loading multiplier from JSON: " + multiplier);
+        CoinsAPI.getPlugin().debug("Loading multiplier from JSON: %s", multiplier);
         try {
             return CoinsPlugin.GSON.fromJson(multiplier, Multiplier.class);
         } catch (JsonSyntaxException ex) {
@@ -125,42 +130,79 @@ public final class Multiplier {
                 multiplier.getData().getType() == MultiplierType.SERVER); // there is no server multiplier enabled
     }
 
+    /**
+     * Try to enable this multiplier, if it can't be enabled yet it will be added to the queue.
+     *
+     * <p> The state of the multiplier is swapped with a single compare and set, so when many threads try to enable
+     * the same multiplier only one of them wins the transition and sends the changes to the cache, messaging service
+     * and storage, the others just see the new state.
+     *
+     * <p> Before enabling it the activation slot for this multiplier is acquired from the storage, so other servers
+     * sharing the same storage can't enable another multiplier for the same slot, they will know about this
+     * multiplier when the enable message is received.
+     *
+     * @return <i>true</i> if the multiplier is enabled after this call, <i>false</i> otherwise.
+     */
     public boolean enable() {
-        synchronized (this) {
-            checkId();
-            if (canBeEnabled()) {
-                start = System.currentTimeMillis();
-                CoinsAPI.getPlugin().getCache().addMultiplier(this);
-                CoinsAPI.getPlugin().getMessagingService().enableMultiplier(this);
-                setQueue(false);
-            } else {
-                setQueue(true);
+        checkId();
+        State current = getState();
+        if (current.isEnabled() || current.getStatus() == Status.EXPIRED) {
+            return current.isEnabled();
+        }
+        // the lease is acquired once before swapping the state, so a lost compare and set never repeats the I/O
+        long now = System.currentTimeMillis();
+        boolean leased = canBeEnabled() && CoinsAPI.getPlugin().getStorageProvider().acquireMultiplierLease(this, now + TimeUnit.MINUTES.toMillis(data.getMinutes()));
+        State next;
+        do {
+            current = getState();
+            if (current.isEnabled() || current.getStatus() == Status.EXPIRED) {
+                next = current;
+                break;
+            }
+            if (leased) {
+                next = current.enable(now);
+            } else if (!current.isQueue()) {
+                next = current.queue(System.currentTimeMillis());
+            } else { // already in queue, nothing changed
+                return false;
             }
-            CoinsAPI.getPlugin().getStorageProvider().enableMultiplier(this);
+        } while (!STATE_UPDATER.compareAndSet(this, current, next));
+        if (next == current) { // another thread enabled or expired this multiplier first
+            if (leased && !current.isEnabled()) { // the lease is keyed by this multiplier, keep it while it is enabled
+                CoinsAPI.getPlugin().getStorageProvider().releaseMultiplierLease(this);
+            }
+            return current.isEnabled();
+        }
+        if (next.isEnabled()) {
+            CoinsAPI.getPlugin().getCache().addMultiplier(this);
+            CoinsAPI.getPlugin().getMessagingService().enableMultiplier(this);
         }
-        return isEnabled();
+        CoinsAPI.getPlugin().getStorageProvider().enableMultiplier(this);
+        return next.isEnabled();
     }
 
     /**
      * Disable and then delete this multiplier from the storageProvider.
      */
     public void disable() {
-        synchronized (this) {
-            if (!_isEnabled()) {
+        State current;
+        do {
+            current = getState();
+            if (!current.isEnabled()) {
                 return;
             }
-            start = 0;
-            try {
-                CoinsAPI.getPlugin().getCache().deleteMultiplier(getId());
-                CoinsAPI.getPlugin().getStorageProvider().deleteMultiplier(this);
-                CoinsAPI.getPlugin().getMessagingService().disableMultiplier(this);
-            } catch (Exception ex) {
-                CoinsAPI.getPlugin().log("An unexpected exception has occurred while disabling the multiplier" +
-                        " #" + id);
-                CoinsAPI.getPlugin().log("Check plugin log files for more information, please report this bug" +
-                        " on https://github.com/Beelzebu/Coins3/issues");
-                CoinsAPI.getPlugin().debug(ex);
-            }
+        } while (!STATE_UPDATER.compareAndSet(this, current, current.expire()));
+        try {
+            CoinsAPI.getPlugin().getCache().deleteMultiplier(getId());
+            CoinsAPI.getPlugin().getStorageProvider().releaseMultiplierLease(this);
+            CoinsAPI.getPlugin().getStorageProvider().deleteMultiplier(this);
+            CoinsAPI.getPlugin().getMessagingService().disableMultiplier(this);
+        } catch (Exception ex) {
+            CoinsAPI.getPlugin().log("An unexpected exception has occurred while disabling the multiplier" +
+                    " #" + id);
+            CoinsAPI.getPlugin().log("Check plugin log files for more information, please report this bug" +
+                    " on https://github.com/Beelzebu/Coins3/issues");
+            CoinsAPI.getPlugin().debug(ex);
         }
     }
 
@@ -183,16 +225,21 @@ public final class Multiplier {
     }
 
     private long getAndCheckRemainingMillis() {
-        if (!_isEnabled()) {
+        State current = getState();
+        if (!current.isEnabled()) {
             return 0;
         }
-        if (System.currentTimeMillis() >= start + TimeUnit.MINUTES.toMillis(data.getMinutes())) {
+        long remainingMillis = current.getStart() + TimeUnit.MINUTES.toMillis(data.getMinutes()) - System.currentTimeMillis();
+        if (remainingMillis <= 0) {
             disable();
         }
-        long remainingMillis = System.currentTimeMillis() - start + TimeUnit.MINUTES.toMillis(data.getMinutes());
         return Math.max(remainingMillis, 0);
     }
 
+    private State getState() {
+        return state;
+    }
+
     private void checkId() {
         if (getId() < 0) {
             throw new IllegalStateException("Multiplier has an invalid ID");
@@ -201,7 +248,7 @@ public final class Multiplier {
 
     public long getEndTime() {
         getAndCheckRemainingMillis();
-        return start + TimeUnit.MINUTES.toMillis(data.getMinutes());
+        return getStart() + TimeUnit.MINUTES.toMillis(data.getMinutes());
     }
 
     public boolean canUsePlayer(UUID uniqueId) {
@@ -216,7 +263,7 @@ public final class Multiplier {
     }
 
     public Builder toBuilder() {
-        return builder().setId(id).setServer(server).setData(data).setEnabled(_isEnabled());
+        return builder().setId(id).setServer(server).setData(data).setEnabled(getState().isEnabled());
     }
 
     @Override
@@ -247,11 +294,177 @@ public final class Multiplier {
                 "id=" + id +
                 ", server='" + server + '\'' +
                 ", data=" + data +
-                ", start=" + start +
-                ", queueStart=" + queueStart +
+                ", state=" + getState() +
                 '}';
     }
 
+    /**
+     * Lifecycle status for a multiplier.
+     */
+    public enum Status {
+        /**
+         * The multiplier was created but it wasn't enabled or queued yet.
+         */
+        IDLE,
+        /**
+         * The multiplier is waiting for other multipliers to be disabled.
+         */
+        QUEUED,
+        /**
+         * The multiplier is enabled and can be used.
+         */
+        ENABLED,
+        /**
+         * The multiplier was enabled and then disabled, it can't be enabled again.
+         */
+        EXPIRED
+    }
+
+    /**
+     * Immutable snapshot of the lifecycle of a multiplier, every transition creates a new state.
+     */
+    private static final class State {
+
+        private static final State IDLE = new State(Status.IDLE, 0, 0);
+        private final Status status;
+        private final long start;
+        private final long queueStart;
+
+        private State(Status status, long start, long queueStart) {
+            this.status = status;
+            this.start = start;
+            this.queueStart = queueStart;
+        }
+
+        private Status getStatus() {
+            return status;
+        }
+
+        private long getStart() {
+            return start;
+        }
+
+        private long getQueueStart() {
+            return queueStart;
+        }
+
+        private boolean isEnabled() {
+            return getStatus() == Status.ENABLED;
+        }
+
+        private boolean isQueue() {
+            return getStatus() == Status.QUEUED;
+        }
+
+        private State queue(long now) {
+            return new State(Status.QUEUED, 0, now);
+        }
+
+        private State enable(long now) {
+            return new State(Status.ENABLED, now, 0);
+        }
+
+        private State expire() {
+            return new State(Status.EXPIRED, 0, 0);
+        }
+
+        @Override
+        public String toString() {
+            return "State{" +
+                    "status=" + status +
+                    ", start=" + start +
+                    ", queueStart=" + queueStart +
+                    '}';
+        }
+    }
+
+    /**
+     * Write and read multipliers directly from json streams, without reflection or intermediate json trees.
+     */
+    static final class Adapter extends TypeAdapter<Multiplier> {
+
+        private static final TypeAdapter<MultiplierData> DATA_ADAPTER = new MultiplierData.Adapter();
+
+        @Override
+        public void write(JsonWriter out, Multiplier multiplier) throws IOException {
+            if (multiplier == null) {
+                out.nullValue();
+                return;
+            }
+            State state = multiplier.getState();
+            out.beginObject();
+            out.name("id").value(multiplier.id);
+            out.name("server").value(multiplier.server);
+            out.name("data");
+            DATA_ADAPTER.write(out, multiplier.data);
+            out.name("status").value(state.getStatus().name());
+            out.name("start").value(state.getStart());
+            out.name("queueStart").value(state.getQueueStart());
+            out.endObject();
+        }
+
+        @Override
+        public Multiplier read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            int id = -1;
+            String server = null;
+            MultiplierData data = null;
+            Status status = null;
+            long start = 0;
+            long queueStart = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "id":
+                        id = in.nextInt();
+                        break;
+                    case "server":
+                        server = in.nextString();
+                        break;
+                    case "data":
+                        data = DATA_ADAPTER.read(in);
+                        break;
+                    case "status":
+                        String statusName = in.nextString();
+                        try {
+                            status = Status.valueOf(statusName);
+                        } catch (IllegalArgumentException ex) { // status from a newer version, use the timestamps
+                            status = null;
+                        }
+                        break;
+                    case "start":
+                        start = in.nextLong();
+                        break;
+                    case "queueStart":
+                        queueStart = in.nextLong();
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            if (data == null) {
+                throw new JsonSyntaxException("Multiplier #" + id + " doesn't have data");
+            }
+            if (status == null) { // json from an older version, status can be known from the timestamps
+                status = start != 0 ? Status.ENABLED : queueStart != 0 ? Status.QUEUED : Status.IDLE;
+            }
+            Multiplier multiplier = new Multiplier(server, data);
+            multiplier.setId(id);
+            multiplier.state = new State(status, start, queueStart);
+            return multiplier;
+        }
+    }
+
     public static Builder builder() {
         return new Builder();
     }
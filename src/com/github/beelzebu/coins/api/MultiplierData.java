@@ -18,12 +18,20 @@
  */
 package com.github.beelzebu.coins.api;
 
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 import java.util.Objects;
 import java.util.UUID;
 
 /**
  * @author Beelzebu
  */
+@JsonAdapter(MultiplierData.Adapter.class)
 public final class MultiplierData {
 
     public static final String SERVER_NAME = "SERVER";
@@ -140,4 +148,77 @@ public final class MultiplierData {
                 ", type=" + type +
                 '}';
     }
+
+    /**
+     * Write and read multiplier data directly from json streams, without reflection or intermediate json trees.
+     */
+    static final class Adapter extends TypeAdapter<MultiplierData> {
+
+        @Override
+        public void write(JsonWriter out, MultiplierData data) throws IOException {
+            if (data == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("enablerUUID").value(data.enablerUUID.toString());
+            out.name("enablerName").value(data.enablerName);
+            out.name("amount").value(data.amount);
+            out.name("minutes").value(data.minutes);
+            out.name("type").value(data.type.name());
+            out.endObject();
+        }
+
+        @Override
+        public MultiplierData read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            UUID enablerUUID = null;
+            String enablerName = null;
+            int amount = 0;
+            int minutes = 0;
+            MultiplierType type = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "enablerUUID":
+                        enablerUUID = UUID.fromString(in.nextString());
+                        break;
+                    case "enablerName":
+                        enablerName = in.nextString();
+                        break;
+                    case "amount":
+                        amount = in.nextInt();
+                        break;
+                    case "minutes":
+                        minutes = in.nextInt();
+                        break;
+                    case "type":
+                        String typeName = in.nextString();
+                        try {
+                            type = MultiplierType.valueOf(typeName);
+                        } catch (IllegalArgumentException ex) {
+                            throw new JsonSyntaxException("Unknown multiplier type: " + typeName, ex);
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            try {
+                return new MultiplierData(enablerUUID, enablerName, amount, minutes, type);
+            } catch (NullPointerException | IllegalStateException ex) {
+                throw new JsonSyntaxException("Invalid multiplier data", ex);
+            }
+        }
+    }
 }
@@ -0,0 +1,198 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.cache;
+
+import com.github.beelzebu.coins.api.storage.StorageProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.OptionalDouble;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nonnull;
+
+/**
+ * Local file with the balance of every player in the storage, used to answer balance lookups right after the server
+ * starts without querying the storage for every player that joins. The file is a header followed by fixed size records
+ * of (uuid most significant bits, uuid least significant bits, balance, version) sorted by uuid, so it is memory mapped
+ * and searched in place instead of being loaded in memory.
+ *
+ * <p> The version of a record is the time when it was read from the storage. Balances from this snapshot may be
+ * outdated, so every balance is served only once and must be verified against the storage after that.
+ *
+ * @author Beelzebu
+ */
+public final class BalanceSnapshot {
+
+    private static final int MAGIC = 0x42414C53;
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 32;
+    private static final Comparator<Record> ORDER = Comparator.<Record>comparingLong(record -> record.mostSigBits).thenComparingLong(record -> record.leastSigBits);
+    private final File file;
+    private final Set<UUID> served = ConcurrentHashMap.newKeySet();
+    private volatile MappedByteBuffer buffer = null;
+    private volatile int records = 0;
+
+    public BalanceSnapshot(@Nonnull File file) {
+        this.file = file;
+    }
+
+    /**
+     * Map the snapshot file in memory, if the file doesn't exist or isn't valid the snapshot will be empty.
+     *
+     * @return <i>true</i> if the snapshot was mapped, <i>false</i> otherwise.
+     * @throws IOException if the file exists but can't be read.
+     */
+    public boolean open() throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return false;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            long count = mapped.getLong(8);
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != FORMAT || count < 0 || size != HEADER_SIZE + count * RECORD_SIZE) {
+                return false;
+            }
+            records = (int) count;
+            buffer = mapped;
+            return true;
+        }
+    }
+
+    /**
+     * Get the balance of a player from this snapshot if it wasn't served before and isn't older than the max age.
+     * Once a balance is returned by this method it won't be returned again. The balance may be outdated, so it must not
+     * be cached or used to calculate a new balance until it is verified against the storage.
+     *
+     * @param uuid         player to lookup.
+     * @param maxAgeMillis max age for the record in milliseconds.
+     * @return optional which may or may not contain the balance of the player.
+     */
+    public OptionalDouble getCoins(@Nonnull UUID uuid, long maxAgeMillis) {
+        MappedByteBuffer mapped = buffer;
+        if (mapped == null) {
+            return OptionalDouble.empty();
+        }
+        int position = find(mapped, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        if (position < 0 || mapped.getLong(position + 24) < System.currentTimeMillis() - maxAgeMillis || !served.add(uuid)) {
+            return OptionalDouble.empty();
+        }
+        return OptionalDouble.of(mapped.getDouble(position + 16));
+    }
+
+    /**
+     * Write a new snapshot with the balance of all players in the storage, the file is written to a temporary file
+     * and then moved, so a snapshot is never partially written. The mapped snapshot isn't replaced, all balances are
+     * verified against the storage after they are served, so there is no need to read the new one until next start.
+     *
+     * @param storageProvider storage to read the players from.
+     * @return amount of players written, or -1 if the storage couldn't be read.
+     * @throws IOException if the snapshot can't be written.
+     */
+    public int write(@Nonnull StorageProvider storageProvider) throws IOException {
+        List<Record> players = new ArrayList<>();
+        boolean read = storageProvider.forEachPlayer(user -> players.add(new Record(user.getUniqueId(), user.getCoins(), System.currentTimeMillis())));
+        if (!read || players.isEmpty()) {
+            return -1;
+        }
+        players.sort(ORDER);
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = ByteBuffer.allocate(RECORD_SIZE * 1024);
+            out.putInt(MAGIC).putInt(FORMAT).putLong(players.size()).putLong(System.currentTimeMillis()).putLong(0);
+            for (Record record : players) {
+                if (!out.hasRemaining()) {
+                    drain(channel, out);
+                }
+                out.putLong(record.mostSigBits).putLong(record.leastSigBits).putDouble(record.balance).putLong(record.version);
+            }
+            drain(channel, out);
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return players.size();
+    }
+
+    /**
+     * Stop serving balances from this snapshot.
+     */
+    public void close() {
+        buffer = null;
+        records = 0;
+        served.clear();
+    }
+
+    private int find(ByteBuffer mapped, long mostSigBits, long leastSigBits) {
+        int low = 0;
+        int high = records - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int position = HEADER_SIZE + middle * RECORD_SIZE;
+            int compare = Long.compare(mapped.getLong(position), mostSigBits);
+            if (compare == 0) {
+                compare = Long.compare(mapped.getLong(position + 8), leastSigBits);
+            }
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    private static final class Record {
+
+        private final long mostSigBits;
+        private final long leastSigBits;
+        private final double balance;
+        private final long version;
+
+        private Record(UUID uuid, double balance, long version) {
+            mostSigBits = uuid.getMostSignificantBits();
+            leastSigBits = uuid.getLeastSignificantBits();
+            this.balance = balance;
+            this.version = version;
+        }
+    }
+}
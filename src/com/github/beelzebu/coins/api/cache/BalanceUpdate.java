@@ -0,0 +1,84 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.cache;
+
+import java.util.UUID;
+
+/**
+ * Result of {@link CacheProvider#addCoins(UUID, double, double)}.
+ *
+ * <p>Possible statuses</p>
+ *
+ * <ul>
+ * <li>{@link Status#UPDATED} - The coins were added, the balance is the new balance.</li>
+ * <li>{@link Status#REJECTED} - The new balance would be lower than the floor, the balance is the current balance.</li>
+ * <li>{@link Status#NOT_CACHED} - The player isn't cached, nothing was changed.</li>
+ * <li>{@link Status#UNKNOWN} - The cache failed, for example with a timeout, and the coins may be added later.</li>
+ * </ul>
+ *
+ * @author Beelzebu
+ */
+public final class BalanceUpdate {
+
+    private static final BalanceUpdate NOT_CACHED = new BalanceUpdate(Status.NOT_CACHED, -1);
+    private static final BalanceUpdate UNKNOWN = new BalanceUpdate(Status.UNKNOWN, -1);
+    private final Status status;
+    private final double balance;
+
+    private BalanceUpdate(Status status, double balance) {
+        this.status = status;
+        this.balance = balance;
+    }
+
+    public static BalanceUpdate updated(double balance) {
+        return new BalanceUpdate(Status.UPDATED, balance);
+    }
+
+    public static BalanceUpdate rejected(double balance) {
+        return new BalanceUpdate(Status.REJECTED, balance);
+    }
+
+    public static BalanceUpdate notCached() {
+        return NOT_CACHED;
+    }
+
+    public static BalanceUpdate unknown() {
+        return UNKNOWN;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the balance after the update.
+     *
+     * @return new balance if the coins were added, current balance if they were rejected, or -1 otherwise.
+     */
+    public double getBalance() {
+        return balance;
+    }
+
+    public enum Status {
+        UPDATED,
+        REJECTED,
+        NOT_CACHED,
+        UNKNOWN
+    }
+}
@@ -72,6 +72,28 @@ public interface CacheProvider {
      */
     void updatePlayer(@Nonnull UUID uuid, double coins);
 
+    /**
+     * Add coins to the cached balance of a player unless the new balance would be lower than the floor. Providers
+     * shared between servers should override this to do it atomically.
+     *
+     * @param uuid  Player UUID to update.
+     * @param coins Coins to add, may be negative to take coins.
+     * @param floor Min balance allowed after adding the coins.
+     * @return result of the update, providers must only return {@link BalanceUpdate.Status#NOT_CACHED} if they know
+     * the player isn't cached, and {@link BalanceUpdate.Status#UNKNOWN} if the coins may still be added.
+     */
+    default BalanceUpdate addCoins(@Nonnull UUID uuid, double coins, double floor) {
+        OptionalDouble current = getCoins(uuid);
+        if (!current.isPresent()) {
+            return BalanceUpdate.notCached();
+        }
+        if (current.getAsDouble() + coins < floor) {
+            return BalanceUpdate.rejected(current.getAsDouble());
+        }
+        updatePlayer(uuid, current.getAsDouble() + coins);
+        return BalanceUpdate.updated(current.getAsDouble() + coins);
+    }
+
     /**
      * Remove a player from this cache.
      *
@@ -0,0 +1,306 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.Nonnull;
+
+/**
+ * Keeps track of which players exist in the storage, so lookups for players that don't exist can be answered without
+ * a query. Known players are kept in a bloom filter seeded from the storage, which can give false positives but never
+ * false negatives, and players that were looked up and don't exist are kept for a few seconds in a negative cache.
+ *
+ * <p> Until the bloom filter is seeded this cache doesn't know anything, so {@link #isMissing(UUID)} and
+ * {@link #isMissing(String)} will only use the negative cache. The bloom filter is only seeded when
+ * {@code Cache.Existence Filter.Enabled} is true, because a miss is only correct if every player inserted in the
+ * storage is added here, by this server or by the messages from other servers, so it must be disabled when other
+ * servers or external tools write to the same storage without a messaging service.
+ *
+ * @author Beelzebu
+ */
+public final class ExistenceCache {
+
+    private static final int MIN_EXPECTED_PLAYERS = 10000;
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+    private static final long NEGATIVE_TTL_SECONDS = 30;
+    private static final long NEGATIVE_MAX_SIZE = 10000;
+    private final Cache<String, Boolean> missing = CacheBuilder.newBuilder().expireAfterWrite(NEGATIVE_TTL_SECONDS, TimeUnit.SECONDS).maximumSize(NEGATIVE_MAX_SIZE).build();
+    private volatile ScalableBloomFilter known = null;
+    private volatile ScalableBloomFilter seeding = null;
+
+    /**
+     * Check if a player is known to not exist in the storage.
+     *
+     * @param uuid UUID of the player.
+     * @return <i>true</i> if the player doesn't exist for sure, <i>false</i> if it may exist.
+     */
+    public boolean isMissing(@Nonnull UUID uuid) {
+        return isMissingKey(key(uuid));
+    }
+
+    /**
+     * Check if a player is known to not exist in the storage.
+     *
+     * @param name name of the player.
+     * @return <i>true</i> if the player doesn't exist for sure, <i>false</i> if it may exist.
+     */
+    public boolean isMissing(@Nonnull String name) {
+        return isMissingKey(key(name));
+    }
+
+    /**
+     * Remember that a player doesn't exist in the storage for a few seconds.
+     *
+     * @param uuid UUID of the player.
+     */
+    public void markMissing(@Nonnull UUID uuid) {
+        missing.put(key(uuid), Boolean.TRUE);
+    }
+
+    /**
+     * Remember that a player doesn't exist in the storage for a few seconds.
+     *
+     * @param name name of the player.
+     */
+    public void markMissing(@Nonnull String name) {
+        missing.put(key(name), Boolean.TRUE);
+    }
+
+    /**
+     * Register a player that exists in the storage, this must be called every time that a player is created or his
+     * name or uuid are updated.
+     *
+     * @param uuid UUID of the player, may be null if it is unknown.
+     * @param name name of the player, may be null if it is unknown.
+     */
+    public void addPlayer(UUID uuid, String name) {
+        if (uuid != null) {
+            add(key(uuid));
+        }
+        if (name != null) {
+            add(key(name));
+        }
+    }
+
+    /**
+     * Start seeding the known players from the storage, players added while the storage is being read are kept.
+     * Every player from the storage must be passed to {@link #seed(UUID, String)} and then {@link #finishSeeding()}
+     * must be called, or {@link #cancelSeeding()} if the storage couldn't be read.
+     */
+    public synchronized void startSeeding() {
+        seeding = new ScalableBloomFilter();
+    }
+
+    /**
+     * Add a player read from the storage while seeding.
+     *
+     * @param uuid UUID of the player.
+     * @param name name of the player.
+     */
+    public void seed(UUID uuid, String name) {
+        ScalableBloomFilter filter = seeding;
+        if (filter == null) {
+            return;
+        }
+        if (uuid != null) {
+            filter.put(key(uuid));
+        }
+        if (name != null) {
+            filter.put(key(name));
+        }
+    }
+
+    /**
+     * Replace all known players with the players seeded since {@link #startSeeding()} was called.
+     */
+    public void finishSeeding() {
+        synchronized (this) {
+            if (seeding == null) {
+                return;
+            }
+            known = seeding;
+            seeding = null;
+        }
+        missing.invalidateAll();
+    }
+
+    /**
+     * Discard the players seeded since {@link #startSeeding()} was called, the known players are not changed.
+     */
+    public synchronized void cancelSeeding() {
+        seeding = null;
+    }
+
+    /**
+     * Check if the bloom filter was seeded from the storage.
+     *
+     * @return <i>true</i> if players that don't exist can be detected without a query.
+     */
+    public boolean isReady() {
+        return known != null;
+    }
+
+    /**
+     * Forget all known and missing players.
+     */
+    public synchronized void clear() {
+        known = null;
+        seeding = null;
+        missing.invalidateAll();
+    }
+
+    private boolean isMissingKey(String key) {
+        if (missing.getIfPresent(key) != null) {
+            return true;
+        }
+        ScalableBloomFilter filter = known;
+        return filter != null && !filter.mightContain(key);
+    }
+
+    private synchronized void add(String key) {
+        missing.invalidate(key);
+        if (known != null) {
+            known.put(key);
+        }
+        if (seeding != null) {
+            seeding.put(key);
+        }
+    }
+
+    private static String key(UUID uuid) {
+        return uuid.toString();
+    }
+
+    private static String key(String name) {
+        return "name:" + name.toLowerCase();
+    }
+
+    /**
+     * Bloom filter that adds a new layer twice as big when the last one is full, so it doesn't need to know the amount
+     * of players before reading them from the storage.
+     */
+    private static final class ScalableBloomFilter {
+
+        private volatile BloomFilter[] layers = {new BloomFilter(MIN_EXPECTED_PLAYERS, FALSE_POSITIVE_PROBABILITY)};
+
+        private void put(String key) {
+            BloomFilter[] current = layers;
+            BloomFilter last = current[current.length - 1];
+            if (last.isFull()) {
+                last = grow(current);
+            }
+            last.put(key);
+        }
+
+        private boolean mightContain(String key) {
+            for (BloomFilter layer : layers) {
+                if (layer.mightContain(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private synchronized BloomFilter grow(BloomFilter[] full) {
+            if (layers != full) { // other thread already added a layer
+                return layers[layers.length - 1];
+            }
+            BloomFilter layer = new BloomFilter(full[full.length - 1].expectedInsertions * 2, FALSE_POSITIVE_PROBABILITY);
+            BloomFilter[] grown = Arrays.copyOf(full, full.length + 1);
+            grown[full.length] = layer;
+            layers = grown;
+            return layer;
+        }
+    }
+
+    /**
+     * Lock free bloom filter, bits are set with CAS so it is safe to read and write from multiple threads.
+     */
+    private static final class BloomFilter {
+
+        private final AtomicLongArray bits;
+        private final long bitCount;
+        private final int hashFunctions;
+        private final int expectedInsertions;
+        private final AtomicInteger insertions = new AtomicInteger();
+
+        private BloomFilter(int expectedInsertions, double fpp) {
+            long optimalBits = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            int words = (int) Math.min((optimalBits + 63) >>> 6, Integer.MAX_VALUE);
+            bits = new AtomicLongArray(words);
+            bitCount = (long) words << 6;
+            hashFunctions = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+            this.expectedInsertions = expectedInsertions;
+        }
+
+        private boolean isFull() {
+            return insertions.get() >= expectedInsertions;
+        }
+
+        private void put(String key) {
+            insertions.incrementAndGet();
+            long[] hashes = hash(key);
+            long combined = hashes[0];
+            for (int i = 0; i < hashFunctions; i++) {
+                long index = (combined & Long.MAX_VALUE) % bitCount;
+                int word = (int) (index >>> 6);
+                long mask = 1L << index;
+                long current;
+                while (((current = bits.get(word)) & mask) == 0) {
+                    if (bits.compareAndSet(word, current, current | mask)) {
+                        break;
+                    }
+                }
+                combined += hashes[1];
+            }
+        }
+
+        private boolean mightContain(String key) {
+            long[] hashes = hash(key);
+            long combined = hashes[0];
+            for (int i = 0; i < hashFunctions; i++) {
+                long index = (combined & Long.MAX_VALUE) % bitCount;
+                if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+                combined += hashes[1];
+            }
+            return true;
+        }
+
+        private static long[] hash(String key) {
+            byte[] bytes = Hashing.murmur3_128().hashString(key, StandardCharsets.UTF_8).asBytes();
+            long first = 0;
+            long second = 0;
+            for (int i = 7; i >= 0; i--) {
+                first = (first << 8) | (bytes[i] & 0xFF);
+                second = (second << 8) | (bytes[i + 8] & 0xFF);
+            }
+            return new long[]{first, second};
+        }
+    }
+}
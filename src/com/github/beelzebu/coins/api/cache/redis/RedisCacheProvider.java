@@ -0,0 +1,320 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.cache.redis;
+
+import com.github.beelzebu.coins.api.Multiplier;
+import com.github.beelzebu.coins.api.MultiplierType;
+import com.github.beelzebu.coins.api.cache.BalanceUpdate;
+import com.github.beelzebu.coins.api.cache.CacheProvider;
+import com.github.beelzebu.coins.api.cache.CacheType;
+import com.github.beelzebu.coins.api.config.AbstractConfigFile;
+import com.github.beelzebu.coins.api.plugin.CoinsBootstrap;
+import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.Set;
+import java.util.UUID;
+import javax.annotation.Nonnull;
+
+/**
+ * Reference {@link CacheProvider} that keeps the cache in Redis, so it is shared by all servers using the same Redis
+ * server. All commands are sent through a {@link RedisPipeline}, so concurrent lookups from many threads are sent to
+ * Redis in a single round trip.
+ *
+ * <p> Keys used by this provider, all of them start with the configured prefix:
+ * <ul>
+ * <li> {@code balance:<uuid>} string with the balance of a player.</li>
+ * <li> {@code players} set with the UUID of all cached players.</li>
+ * <li> {@code multiplier:<id>} hash with the {@code json}, {@code server} and {@code global} fields of a
+ * multiplier.</li>
+ * <li> {@code multipliers}, {@code multipliers:global} and {@code multipliers:server:<server>} sets with the ids of
+ * all multipliers, global multipliers and multipliers for a server.</li>
+ * </ul>
+ *
+ * @author Beelzebu
+ */
+public class RedisCacheProvider implements CacheProvider {
+
+    /**
+     * Add coins to the balance in KEYS[1] if the new balance isn't lower than ARGV[2], returns nil if there is no
+     * balance, or an array with 1 if the coins were added or 0 if not, and the balance after the script.
+     */
+    private static final String ADD_COINS_SCRIPT = "local current = redis.call('GET', KEYS[1])\n" +
+            "if not current then return nil end\n" +
+            "local updated = tonumber(current) + tonumber(ARGV[1])\n" +
+            "if updated < tonumber(ARGV[2]) then return {0, current} end\n" +
+            "local balance = string.format('%.17g', updated)\n" +
+            "redis.call('SET', KEYS[1], balance)\n" +
+            "return {1, balance}";
+    private static final String ADD_COINS_SHA = Hashing.sha1().hashString(ADD_COINS_SCRIPT, StandardCharsets.UTF_8).toString();
+    private static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+    protected final CoinsPlugin<? extends CoinsBootstrap> plugin;
+    private final RedisClient client;
+    private final String prefix;
+    private final long timeoutMillis;
+    private final MultiplierPoller multiplierPoller;
+    private RedisPipeline pipeline;
+
+    public RedisCacheProvider(@Nonnull CoinsPlugin<? extends CoinsBootstrap> plugin, @Nonnull RedisClient client, @Nonnull String prefix, long timeoutMillis) {
+        this.plugin = plugin;
+        this.client = client;
+        this.prefix = prefix;
+        this.timeoutMillis = timeoutMillis;
+        multiplierPoller = new MultiplierPoller(plugin);
+    }
+
+    /**
+     * Create a provider using a {@link SocketRedisClient} configured from the {@code Redis} section of the config.
+     *
+     * @param plugin plugin instance.
+     * @return redis cache provider.
+     */
+    public static RedisCacheProvider fromConfig(@Nonnull CoinsPlugin<? extends CoinsBootstrap> plugin) {
+        AbstractConfigFile config = plugin.getConfig();
+        int timeout = config.getInt("Redis.Timeout Millis", (int) DEFAULT_TIMEOUT_MILLIS);
+        RedisClient client = new SocketRedisClient(config.getString("Redis.Host", "localhost"), config.getInt("Redis.Port", 6379),
+                config.getString("Redis.Password", ""), config.getInt("Redis.Database", 0), timeout);
+        return new RedisCacheProvider(plugin, client, config.getString("Redis.Prefix", "coins:"), timeout);
+    }
+
+    @Override
+    public void start() {
+        pipeline = new RedisPipeline(client, timeoutMillis);
+        try {
+            pipeline.call("SCRIPT", "LOAD", ADD_COINS_SCRIPT);
+        } catch (RedisException ex) {
+            plugin.log("Can't connect to Redis, the cache will fallback to the storage until it is available.");
+            plugin.debug(ex);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (pipeline != null) {
+            pipeline.close();
+            pipeline = null;
+        }
+        client.close();
+    }
+
+    @Override
+    public OptionalDouble getCoins(@Nonnull UUID uuid) {
+        try {
+            Object balance = pipeline.call("GET", balanceKey(uuid));
+            return balance != null ? OptionalDouble.of(Double.parseDouble(balance.toString())) : OptionalDouble.empty();
+        } catch (RedisException | NumberFormatException ex) {
+            plugin.debug("Can't get the balance of %s from Redis: %s", uuid, ex.getMessage());
+            return OptionalDouble.empty();
+        }
+    }
+
+    @Override
+    public void updatePlayer(@Nonnull UUID uuid, double coins) {
+        try {
+            pipeline.callAll(Arrays.asList(new String[]{"SET", balanceKey(uuid), String.valueOf(coins)}, new String[]{"SADD", prefix + "players", uuid.toString()}));
+        } catch (RedisException ex) {
+            plugin.debug("Can't update the balance of %s in Redis: %s", uuid, ex.getMessage());
+            removePlayer(uuid); // don't keep an old balance
+        }
+    }
+
+    /**
+     * Add coins atomically with a lua script, so concurrent changes from many servers are never lost. If the script
+     * fails or times out the result is unknown, because a queued script is still sent later.
+     */
+    @Override
+    public BalanceUpdate addCoins(@Nonnull UUID uuid, double coins, double floor) {
+        String[] keys = {balanceKey(uuid)};
+        String[] args = {String.valueOf(coins), String.valueOf(floor)};
+        try {
+            Object reply;
+            try {
+                reply = pipeline.call(script("EVALSHA", ADD_COINS_SHA, keys, args));
+            } catch (RedisException ex) {
+                if (ex.getMessage() == null || !ex.getMessage().startsWith("NOSCRIPT")) {
+                    throw ex;
+                }
+                reply = pipeline.call(script("EVAL", ADD_COINS_SCRIPT, keys, args));
+            }
+            if (reply == null) {
+                return BalanceUpdate.notCached();
+            }
+            if (!(reply instanceof List) || ((List<?>) reply).size() < 2) {
+                plugin.debug("Unexpected reply adding coins to %s in Redis: %s", uuid, reply);
+                return BalanceUpdate.unknown();
+            }
+            List<?> result = (List<?>) reply;
+            double balance = Double.parseDouble(result.get(1).toString());
+            return Long.valueOf(1).equals(result.get(0)) ? BalanceUpdate.updated(balance) : BalanceUpdate.rejected(balance);
+        } catch (RedisException | NumberFormatException ex) {
+            plugin.debug("Can't add coins to %s in Redis: %s", uuid, ex.getMessage());
+            return BalanceUpdate.unknown();
+        }
+    }
+
+    @Override
+    public void removePlayer(@Nonnull UUID uuid) {
+        try {
+            pipeline.callAll(Arrays.asList(new String[]{"DEL", balanceKey(uuid)}, new String[]{"SREM", prefix + "players", uuid.toString()}));
+        } catch (RedisException ex) {
+            plugin.log("Can't remove " + uuid + " from Redis, his cached balance may be outdated.");
+            plugin.debug(ex);
+        }
+    }
+
+    @Override
+    public Optional<Multiplier> getMultiplier(int id) {
+        try {
+            Object json = pipeline.call("HGET", multiplierKey(id), "json");
+            return json != null ? Optional.ofNullable(Multiplier.fromJson(json.toString())) : Optional.empty();
+        } catch (RedisException ex) {
+            plugin.debug("Can't get multiplier #%s from Redis: %s", id, ex.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void addMultiplier(@Nonnull Multiplier multiplier) {
+        Objects.requireNonNull(multiplier, "Multiplier can't be null");
+        String id = String.valueOf(multiplier.getId());
+        boolean global = multiplier.getData().getType() == MultiplierType.GLOBAL;
+        String server = global ? "" : multiplier.getServer().toLowerCase();
+        List<String[]> commands = new ArrayList<>(4);
+        commands.add(new String[]{"HMSET", multiplierKey(multiplier.getId()), "json", CoinsPlugin.GSON.toJson(multiplier), "server", server, "global", String.valueOf(global)});
+        commands.add(new String[]{"SADD", prefix + "multipliers", id});
+        commands.add(new String[]{"SADD", global ? prefix + "multipliers:global" : serverIndexKey(server), id});
+        try {
+            pipeline.callAll(commands);
+        } catch (RedisException ex) {
+            plugin.log("Can't add multiplier #" + id + " to Redis.");
+            plugin.debug(ex);
+        }
+    }
+
+    @Override
+    public void deleteMultiplier(int id) {
+        try {
+            Object server = pipeline.call("HGET", multiplierKey(id), "server");
+            List<String[]> commands = new ArrayList<>(4);
+            commands.add(new String[]{"DEL", multiplierKey(id)});
+            commands.add(new String[]{"SREM", prefix + "multipliers", String.valueOf(id)});
+            commands.add(new String[]{"SREM", prefix + "multipliers:global", String.valueOf(id)});
+            if (server != null && !server.toString().isEmpty()) {
+                commands.add(new String[]{"SREM", serverIndexKey(server.toString()), String.valueOf(id)});
+            }
+            pipeline.callAll(commands);
+        } catch (RedisException ex) {
+            plugin.log("Can't delete multiplier #" + id + " from Redis.");
+            plugin.debug(ex);
+        }
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliers() {
+        return getMultipliers(new String[]{"SMEMBERS", prefix + "multipliers"});
+    }
+
+    /**
+     * Get the multipliers for a server from the indexes, instead of reading all multipliers.
+     */
+    @Override
+    public Collection<Multiplier> getMultipliers(@Nonnull String server) {
+        Objects.requireNonNull(server, "Server name can't be null");
+        return getMultipliers(new String[]{"SUNION", serverIndexKey(server), prefix + "multipliers:global"});
+    }
+
+    @Override
+    public Collection<UUID> getPlayers() {
+        Set<UUID> players = new LinkedHashSet<>();
+        try {
+            for (Object member : asList(pipeline.call("SMEMBERS", prefix + "players"))) {
+                players.add(UUID.fromString(member.toString()));
+            }
+        } catch (RedisException | IllegalArgumentException ex) {
+            plugin.debug("Can't get cached players from Redis: %s", ex.getMessage());
+        }
+        return players;
+    }
+
+    @Override
+    public CacheType getCacheType() {
+        return CacheType.REDIS;
+    }
+
+    @Override
+    public MultiplierPoller getMultiplierPoller() {
+        return multiplierPoller;
+    }
+
+    private Collection<Multiplier> getMultipliers(String[] idsCommand) {
+        Set<Multiplier> multipliers = new LinkedHashSet<>();
+        try {
+            List<String[]> commands = new ArrayList<>();
+            for (Object id : asList(pipeline.call(idsCommand))) {
+                commands.add(new String[]{"HGET", prefix + "multiplier:" + id, "json"});
+            }
+            for (Object json : pipeline.callAll(commands)) {
+                if (json != null) {
+                    Multiplier multiplier = Multiplier.fromJson(json.toString());
+                    if (multiplier != null) {
+                        multipliers.add(multiplier);
+                    }
+                }
+            }
+        } catch (RedisException ex) {
+            plugin.debug("Can't get multipliers from Redis: %s", ex.getMessage());
+        }
+        return multipliers;
+    }
+
+    private String[] script(String command, String script, String[] keys, String[] args) {
+        String[] full = new String[3 + keys.length + args.length];
+        full[0] = command;
+        full[1] = script;
+        full[2] = String.valueOf(keys.length);
+        System.arraycopy(keys, 0, full, 3, keys.length);
+        System.arraycopy(args, 0, full, 3 + keys.length, args.length);
+        return full;
+    }
+
+    private List<?> asList(Object reply) {
+        return reply instanceof List ? (List<?>) reply : Collections.emptyList();
+    }
+
+    private String balanceKey(UUID uuid) {
+        return prefix + "balance:" + uuid;
+    }
+
+    private String multiplierKey(int id) {
+        return prefix + "multiplier:" + id;
+    }
+
+    private String serverIndexKey(String server) {
+        return prefix + "multipliers:server:" + server.toLowerCase();
+    }
+}
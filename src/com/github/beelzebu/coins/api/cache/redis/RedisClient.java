@@ -0,0 +1,52 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.cache.redis;
+
+import java.util.List;
+import javax.annotation.Nonnull;
+
+/**
+ * Minimal Redis client used by {@link RedisCacheProvider}, so the provider can be used with any Redis library.
+ * {@link SocketRedisClient} is a simple implementation without dependencies.
+ *
+ * <p> Implementations must be thread safe, but they don't need to support concurrent pipelines, the provider sends
+ * all commands from a single thread.
+ *
+ * @author Beelzebu
+ */
+public interface RedisClient {
+
+    /**
+     * Send many commands to the server without waiting for the replies between them, and read all replies.
+     *
+     * <p> Replies are returned in the same order as the commands, using {@link String} for simple and bulk strings,
+     * {@link Long} for integers, {@link List} for arrays and <i>null</i> for nil replies. Error replies don't fail the
+     * other commands, they are returned as {@link RedisException} instances.
+     *
+     * @param commands commands to send, every command is the name followed by the arguments.
+     * @return one reply for every command.
+     * @throws RedisException if the commands can't be sent or the replies can't be read.
+     */
+    List<Object> pipeline(@Nonnull List<String[]> commands) throws RedisException;
+
+    /**
+     * Close the connection to the server.
+     */
+    void close();
+}
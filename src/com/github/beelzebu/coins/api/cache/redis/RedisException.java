@@ -0,0 +1,37 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.cache.redis;
+
+/**
+ * Error returned by the Redis server or thrown when the connection to the server fails.
+ *
+ * @author Beelzebu
+ */
+public class RedisException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RedisException(String message) {
+        super(message);
+    }
+
+    public RedisException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.cache.redis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sends commands from many threads to Redis in pipelines. Commands are queued and a single thread sends all commands
+ * waiting in the queue in one pipeline, so concurrent lookups share a single round trip to the server.
+ *
+ * @author Beelzebu
+ */
+final class RedisPipeline {
+
+    private static final int MAX_BATCH = 512;
+    private final RedisClient client;
+    private final long timeoutMillis;
+    private final BlockingQueue<PendingCommand> queue = new LinkedBlockingQueue<>();
+    private final Thread sender;
+    private volatile boolean running = true;
+
+    RedisPipeline(RedisClient client, long timeoutMillis) {
+        this.client = client;
+        this.timeoutMillis = timeoutMillis;
+        sender = new Thread(this::sendLoop, "Coins Redis Pipeline");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Send a command and wait for the reply.
+     *
+     * @param command command name followed by the arguments.
+     * @return reply for the command.
+     * @throws RedisException if the server replied with an error or the command failed.
+     */
+    Object call(String... command) throws RedisException {
+        return await(submit(command));
+    }
+
+    /**
+     * Send many commands in the same pipeline and wait for all replies.
+     *
+     * @param commands commands to send.
+     * @return replies in the same order as the commands.
+     * @throws RedisException if any command failed.
+     */
+    List<Object> callAll(List<String[]> commands) throws RedisException {
+        List<CompletableFuture<Object>> futures = new ArrayList<>(commands.size());
+        synchronized (queue) { // keep them together so they are sent in the same pipeline
+            commands.forEach(command -> futures.add(submit(command)));
+        }
+        List<Object> replies = new ArrayList<>(futures.size());
+        for (CompletableFuture<Object> future : futures) {
+            replies.add(await(future));
+        }
+        return replies;
+    }
+
+    /**
+     * Send all queued commands and stop the sender thread.
+     */
+    void close() {
+        running = false;
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Object> submit(String[] command) {
+        PendingCommand pending = new PendingCommand(command);
+        if (!running) {
+            pending.reply.completeExceptionally(new RedisException("Redis pipeline was closed"));
+        } else {
+            queue.add(pending);
+        }
+        return pending.reply;
+    }
+
+    private Object await(CompletableFuture<Object> reply) {
+        try {
+            return reply.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            throw ex.getCause() instanceof RedisException ? (RedisException) ex.getCause() : new RedisException("Redis command failed", ex.getCause());
+        } catch (TimeoutException ex) {
+            throw new RedisException("Timed out waiting for a reply from Redis", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RedisException("Interrupted while waiting for a reply from Redis", ex);
+        }
+    }
+
+    private void sendLoop() {
+        List<PendingCommand> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingCommand first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                synchronized (queue) {
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                }
+                send(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+        PendingCommand pending;
+        while ((pending = queue.poll()) != null) {
+            pending.reply.completeExceptionally(new RedisException("Redis pipeline was closed"));
+        }
+    }
+
+    private void send(List<PendingCommand> batch) {
+        List<String[]> commands = new ArrayList<>(batch.size());
+        batch.forEach(pending -> commands.add(pending.command));
+        try {
+            List<Object> replies = client.pipeline(commands);
+            for (int i = 0; i < batch.size(); i++) {
+                Object reply = i < replies.size() ? replies.get(i) : new RedisException("Missing reply");
+                if (reply instanceof RedisException) {
+                    batch.get(i).reply.completeExceptionally((RedisException) reply);
+                } else {
+                    batch.get(i).reply.complete(reply);
+                }
+            }
+        } catch (RuntimeException ex) {
+            batch.forEach(pending -> pending.reply.completeExceptionally(ex));
+        }
+    }
+
+    private static final class PendingCommand {
+
+        private final String[] command;
+        private final CompletableFuture<Object> reply = new CompletableFuture<>();
+
+        private PendingCommand(String[] command) {
+            this.command = command;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.cache.redis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nonnull;
+
+/**
+ * {@link RedisClient} that talks the Redis protocol over a single socket, without any dependency. The connection is
+ * opened when the first pipeline is sent, and opened again if it fails.
+ *
+ * @author Beelzebu
+ */
+public final class SocketRedisClient implements RedisClient {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private final String host;
+    private final int port;
+    private final String password;
+    private final int database;
+    private final int timeoutMillis;
+    private Socket socket;
+    private OutputStream out;
+    private InputStream in;
+
+    /**
+     * @param host          host of the Redis server.
+     * @param port          port of the Redis server.
+     * @param password      password for the server, null or empty if the server doesn't need it.
+     * @param database      database to select.
+     * @param timeoutMillis timeout to connect and read replies.
+     */
+    public SocketRedisClient(@Nonnull String host, int port, String password, int database, int timeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.password = password;
+        this.database = database;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public synchronized List<Object> pipeline(@Nonnull List<String[]> commands) throws RedisException {
+        if (commands.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            connect();
+            return send(commands);
+        } catch (IOException ex) {
+            disconnect();
+            throw new RedisException("Can't send " + commands.size() + " commands to " + host + ":" + port, ex);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        disconnect();
+    }
+
+    private void connect() throws IOException {
+        if (socket != null && socket.isConnected() && !socket.isClosed()) {
+            return;
+        }
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(timeoutMillis);
+        socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+        out = new BufferedOutputStream(socket.getOutputStream());
+        in = new BufferedInputStream(socket.getInputStream());
+        List<String[]> handshake = new ArrayList<>(2);
+        if (password != null && !password.isEmpty()) {
+            handshake.add(new String[]{"AUTH", password});
+        }
+        if (database != 0) {
+            handshake.add(new String[]{"SELECT", String.valueOf(database)});
+        }
+        for (Object reply : send(handshake)) {
+            if (reply instanceof RedisException) {
+                disconnect();
+                throw (RedisException) reply;
+            }
+        }
+    }
+
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+            }
+        }
+        socket = null;
+        out = null;
+        in = null;
+    }
+
+    private List<Object> send(List<String[]> commands) throws IOException {
+        for (String[] command : commands) {
+            writeLine('*', command.length);
+            for (String argument : command) {
+                byte[] bytes = argument.getBytes(StandardCharsets.UTF_8);
+                writeLine('$', bytes.length);
+                out.write(bytes);
+                out.write(CRLF);
+            }
+        }
+        out.flush();
+        List<Object> replies = new ArrayList<>(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            replies.add(readReply());
+        }
+        return replies;
+    }
+
+    private void writeLine(char type, int value) throws IOException {
+        out.write(type);
+        out.write(String.valueOf(value).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+    }
+
+    private Object readReply() throws IOException {
+        int type = in.read();
+        String line = readLine();
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                return new RedisException(line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                byte[] bytes = new byte[length];
+                int read = 0;
+                while (read < length) {
+                    int count = in.read(bytes, read, length - read);
+                    if (count < 0) {
+                        throw new EOFException("Connection closed while reading a reply");
+                    }
+                    read += count;
+                }
+                readLine();
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            case '*': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                List<Object> array = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) {
+                    array.add(readReply());
+                }
+                return array;
+            }
+            case -1:
+                throw new EOFException("Connection closed while reading a reply");
+            default:
+                throw new IOException("Unknown reply type: " + (char) type);
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int previous = -1;
+        int current;
+        while ((current = in.read()) != -1) {
+            if (previous == '\r' && current == '\n') {
+                byte[] bytes = line.toByteArray();
+                return new String(bytes, 0, bytes.length - 1, StandardCharsets.UTF_8);
+            }
+            line.write(current);
+            previous = current;
+        }
+        throw new EOFException("Connection closed while reading a reply");
+    }
+}
@@ -36,43 +36,50 @@ public abstract class AbstractConfigFile {
     }
 
     public List<String> getStringList(String path) {
-        return get(path, List.class) != null ? get(path, List.class) : new ArrayList<>();
+        List<String> value = getList(path);
+        return value != null ? value : new ArrayList<>();
     }
 
     public boolean getBoolean(String path) {
-        return (boolean) get(path, false);
+        return getBoolean(path, false);
     }
 
     public int getInt(String path) {
-        return get(path, int.class) instanceof Number ? ((Number) get(path, int.class)).intValue() : -1;
+        return getInt(path, -1);
     }
 
     public double getDouble(String path) {
-        return get(path, double.class) instanceof Number ? ((Number) get(path, double.class)).doubleValue() : -1;
+        return getDouble(path, -1);
     }
 
     public Object get(String path, Object def) {
-        return get(path, def.getClass()) != null ? get(path, def.getClass()) : def;
+        Object value = get(path, def.getClass());
+        return value != null ? value : def;
     }
 
     public String getString(String path, String def) {
-        return get(path, String.class) != null ? get(path, String.class) : def;
+        String value = get(path, String.class);
+        return value != null ? value : def;
     }
 
     public List<String> getStringList(String path, List<String> def) {
-        return get(path, List.class) != null ? getStringList(path) : def;
+        List<String> value = getList(path);
+        return value != null ? value : def;
     }
 
     public boolean getBoolean(String path, boolean def) {
-        return get(path, boolean.class) != null ? get(path, boolean.class) : def;
+        Object value = get(path);
+        return value instanceof Boolean ? (Boolean) value : def;
     }
 
     public int getInt(String path, int def) {
-        return get(path, int.class) != null ? getInt(path) : def;
+        Object value = get(path);
+        return value instanceof Number ? ((Number) value).intValue() : def;
     }
 
     public double getDouble(String path, double def) {
-        return get(path, double.class) != null ? getDouble(path) : def;
+        Object value = get(path);
+        return value instanceof Number ? ((Number) value).doubleValue() : def;
     }
 
     public abstract Object get(String path);
@@ -87,7 +94,25 @@ public abstract class AbstractConfigFile {
         return null;
     }
 
+    @SuppressWarnings("unchecked")
+    private List<String> getList(String path) {
+        Object value = get(path);
+        return value instanceof List ? (List<String>) value : null;
+    }
+
     public abstract Set<String> getConfigurationSection(String path);
 
-    public abstract void reload();
+    /**
+     * Reload this file from disk, implementations overriding this must call {@code super.reload()} once the file was
+     * read again, so any value cached from this file is compiled again.
+     */
+    public void reload() {
+        onReload();
+    }
+
+    /**
+     * Called after this file was reloaded, sub classes caching values from this file should override this.
+     */
+    protected void onReload() {
+    }
 }
@@ -30,10 +30,31 @@ import java.util.logging.Logger;
  */
 public abstract class CoinsConfig extends AbstractConfigFile {
 
+    private volatile Settings settings;
+
+    /**
+     * Get the values from this config that are used on every API call, these values are read once and cached until
+     * this config is reloaded.
+     *
+     * @return compiled settings for this config.
+     */
+    public final Settings getSettings() {
+        Settings current = settings;
+        if (current == null) {
+            settings = current = new Settings(this);
+        }
+        return current;
+    }
+
+    @Override
+    protected void onReload() {
+        settings = new Settings(this);
+    }
+
     // #EasterEgg
     // this can be enabled in minigame arenas where the only transaction is to add coins to players
     public boolean vaultMultipliers() {
-        return getBoolean("Vault.Use Multipliers", false);
+        return getSettings().vaultMultipliers;
     }
 
     public boolean useBungee() {
@@ -61,6 +82,38 @@ public abstract class CoinsConfig extends AbstractConfigFile {
     }
 
     public StorageType getStorageType() {
+        return getSettings().storageType;
+    }
+
+    public MessagingServiceType getMessagingServiceType() {
+        return getSettings().messagingServiceType;
+    }
+
+    public CacheType getCacheType() {
+        return getSettings().cacheType;
+    }
+
+    public boolean isDebug() {
+        return getSettings().debug;
+    }
+
+    public boolean isDebugFile() {
+        return getSettings().debugFile;
+    }
+
+    public int getDatabaseVersion() {
+        return getInt("Database Version", 1);
+    }
+
+    public double getStartingCoins() {
+        return getSettings().startingCoins;
+    }
+
+    public String getPrefix() {
+        return getSettings().prefix;
+    }
+
+    private StorageType readStorageType() {
         StorageType type = StorageType.SQLITE;
         try {
             return StorageType.valueOf(getString("Storage Type", "sqlite").toUpperCase());
@@ -70,7 +123,7 @@ public abstract class CoinsConfig extends AbstractConfigFile {
         return type;
     }
 
-    public MessagingServiceType getMessagingServiceType() {
+    private MessagingServiceType readMessagingServiceType() {
         MessagingServiceType type = MessagingServiceType.NONE;
         try {
             return MessagingServiceType.valueOf(getString("Messaging Service", "none").toUpperCase());
@@ -80,7 +133,7 @@ public abstract class CoinsConfig extends AbstractConfigFile {
         return type;
     }
 
-    public CacheType getCacheType() {
+    private CacheType readCacheType() {
         CacheType type = CacheType.LOCAL;
         try {
             return CacheType.valueOf(getString("Cache", "local").toUpperCase());
@@ -90,15 +143,61 @@ public abstract class CoinsConfig extends AbstractConfigFile {
         return type;
     }
 
-    public boolean isDebug() {
-        return getBoolean("General.Logging.Debug.Enabled", false);
-    }
+    /**
+     * Immutable snapshot of the values from {@link CoinsConfig} that are read in hot paths.
+     */
+    public static final class Settings {
 
-    public boolean isDebugFile() {
-        return getBoolean("General.Logging.Debug.File", true);
-    }
+        private final boolean vaultMultipliers;
+        private final StorageType storageType;
+        private final MessagingServiceType messagingServiceType;
+        private final CacheType cacheType;
+        private final boolean debug;
+        private final boolean debugFile;
+        private final double startingCoins;
+        private final String prefix;
 
-    public int getDatabaseVersion() {
-        return getInt("Database Version", 1);
+        private Settings(CoinsConfig config) {
+            vaultMultipliers = config.getBoolean("Vault.Use Multipliers", false);
+            storageType = config.readStorageType();
+            messagingServiceType = config.readMessagingServiceType();
+            cacheType = config.readCacheType();
+            debug = config.getBoolean("General.Logging.Debug.Enabled", false);
+            debugFile = config.getBoolean("General.Logging.Debug.File", true);
+            startingCoins = config.getDouble("General.Starting Coins", 0);
+            prefix = config.getString("Prefix", "&c&lCoins &6&l>&7");
+        }
+
+        public boolean isVaultMultipliers() {
+            return vaultMultipliers;
+        }
+
+        public StorageType getStorageType() {
+            return storageType;
+        }
+
+        public MessagingServiceType getMessagingServiceType() {
+            return messagingServiceType;
+        }
+
+        public CacheType getCacheType() {
+            return cacheType;
+        }
+
+        public boolean isDebug() {
+            return debug;
+        }
+
+        public boolean isDebugFile() {
+            return debugFile;
+        }
+
+        public double getStartingCoins() {
+            return startingCoins;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
     }
 }
@@ -26,12 +26,31 @@ import java.util.List;
 public abstract class MultipliersConfig extends AbstractConfigFile {
 
     protected CoinsPlugin<? extends CoinsBootstrap> coinsPlugin;
+    private volatile String serverName;
 
     public MultipliersConfig(CoinsPlugin<? extends CoinsBootstrap> coinsPlugin) {
         this.coinsPlugin = coinsPlugin;
     }
 
+    /**
+     * Get the name of this server in lowercase, this value is cached until this config is reloaded.
+     *
+     * @return server name from this config.
+     */
     public String getServerName() {
+        String current = serverName;
+        if (current == null) {
+            serverName = current = readServerName();
+        }
+        return current;
+    }
+
+    @Override
+    protected void onReload() {
+        serverName = readServerName();
+    }
+
+    private String readServerName() {
         return getString("Server name", "default").toLowerCase();
     }
 
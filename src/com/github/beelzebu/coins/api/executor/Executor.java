@@ -21,11 +21,19 @@ package com.github.beelzebu.coins.api.executor;
 import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * @author Beelzebu
  */
+@JsonAdapter(Executor.Adapter.class)
 public class Executor {
 
     private final String id;
@@ -67,4 +75,77 @@ public class Executor {
     public JsonObject toJson() {
         return toJson(this);
     }
+
+    /**
+     * Write and read executors directly from json streams, without reflection or intermediate json trees.
+     */
+    static final class Adapter extends TypeAdapter<Executor> {
+
+        @Override
+        public void write(JsonWriter out, Executor executor) throws IOException {
+            if (executor == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(executor.id);
+            out.name("displayname").value(executor.displayname);
+            out.name("cost").value(executor.cost);
+            out.name("commands");
+            if (executor.commands == null) {
+                out.nullValue();
+            } else {
+                out.beginArray();
+                for (String command : executor.commands) {
+                    out.value(command);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Executor read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String id = null;
+            String displayname = null;
+            double cost = 0;
+            List<String> commands = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "id":
+                        id = in.nextString();
+                        break;
+                    case "displayname":
+                        displayname = in.nextString();
+                        break;
+                    case "cost":
+                        cost = in.nextDouble();
+                        break;
+                    case "commands":
+                        commands = new ArrayList<>();
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            commands.add(in.nextString());
+                        }
+                        in.endArray();
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return new Executor(id, displayname, cost, commands);
+        }
+    }
 }
@@ -20,16 +20,20 @@ package com.github.beelzebu.coins.api.messaging;
 
 import com.github.beelzebu.coins.api.CoinsAPI;
 import com.github.beelzebu.coins.api.Multiplier;
+import com.github.beelzebu.coins.api.cache.CacheType;
 import com.github.beelzebu.coins.api.executor.Executor;
 import com.github.beelzebu.coins.api.executor.ExecutorManager;
 import com.github.beelzebu.coins.api.plugin.CoinsBootstrap;
 import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
 import com.github.beelzebu.coins.api.storage.StorageType;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.gson.JsonObject;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.OptionalDouble;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Beelzebu
@@ -37,7 +41,9 @@ import java.util.UUID;
 @SuppressWarnings("unused")
 public abstract class AbstractMessagingService {
 
+    private static final long HANDOFF_SEQUENCE_MINUTES = 5;
     protected final CoinsPlugin<? extends CoinsBootstrap> coinsPlugin;
+    private final Cache<UUID, Long> handoffSequences = CacheBuilder.newBuilder().expireAfterWrite(HANDOFF_SEQUENCE_MINUTES, TimeUnit.MINUTES).build();
 
     public AbstractMessagingService(CoinsPlugin<? extends CoinsBootstrap> coinsPlugin) {
         this.coinsPlugin = coinsPlugin;
@@ -93,6 +99,56 @@ public abstract class AbstractMessagingService {
         }
     }
 
+    /**
+     * Publish a user that was created or renamed in the storage over all servers using this messaging service, so
+     * other servers know that this user exists.
+     *
+     * @param uuid user to publish.
+     * @param name current name of the user.
+     */
+    public void publishUserCreated(UUID uuid, String name) {
+        Objects.requireNonNull(uuid, "UUID can't be null");
+        try {
+            JsonObject user = new JsonObject();
+            user.addProperty("uuid", uuid.toString());
+            if (name != null) {
+                user.addProperty("name", name);
+            }
+            sendMessage(new Message(MessageType.USER_CREATE, user));
+        } catch (Exception ex) {
+            coinsPlugin.log("An unexpected error has occurred while publishing the creation of: " + uuid);
+            coinsPlugin.log("Check plugin log files for more information, please report this bug on https://github.com/Beelzebu/Coins3-API/issues");
+            coinsPlugin.debug(ex);
+        }
+    }
+
+    /**
+     * Hand off the balance of a user that is leaving this server to the server where he is going, so that server can
+     * cache it before the user joins instead of reading it from the storage.
+     *
+     * @param uuid        user to hand off.
+     * @param coins       latest balance of the user.
+     * @param sequence    sequence of the handoff, from {@link #nextHandoffSequence(UUID)}, the destination ignores
+     *                    handoffs that aren't newer than the last one it received for the user.
+     * @param destination name of the server where the user is going.
+     */
+    public void publishHandoff(UUID uuid, double coins, long sequence, String destination) {
+        Objects.requireNonNull(uuid, "UUID can't be null");
+        Objects.requireNonNull(destination, "Destination can't be null");
+        try {
+            JsonObject user = new JsonObject();
+            user.addProperty("uuid", uuid.toString());
+            user.addProperty("coins", coins);
+            user.addProperty("sequence", sequence);
+            user.addProperty("server", destination.toLowerCase());
+            sendMessage(new Message(MessageType.USER_HANDOFF, user));
+        } catch (Exception ex) {
+            coinsPlugin.log("An unexpected error has occurred while handing off: " + uuid);
+            coinsPlugin.log("Check plugin log files for more information, please report this bug on https://github.com/Beelzebu/Coins3-API/issues");
+            coinsPlugin.debug(ex);
+        }
+    }
+
     /**
      * Publish a multiplier over all servers using this messaging service.
      *
@@ -101,7 +157,7 @@ public abstract class AbstractMessagingService {
     public final void updateMultiplier(Multiplier multiplier) {
         Objects.requireNonNull(multiplier, "Multiplier can't be null");
         try {
-            sendMessage(new Message(MessageType.MULTIPLIER_UPDATE, objectWith("multiplier", multiplier.toJson())));
+            sendMessage(new Message(MessageType.MULTIPLIER_UPDATE, objectWith("multiplier", CoinsPlugin.GSON.toJson(multiplier))));
         } catch (Exception ex) {
             coinsPlugin.log("An unexpected error has occurred while publishing a multiplier over messaging service.");
             coinsPlugin.log("Check plugin log files for more information, please report this bug on https://github.com/Beelzebu/Coins3-API/issues");
@@ -117,7 +173,7 @@ public abstract class AbstractMessagingService {
     public final void enableMultiplier(Multiplier multiplier) {
         Objects.requireNonNull(multiplier, "Multiplier can't be null");
         try {
-            sendMessage(new Message(MessageType.MULTIPLIER_ENABLE, objectWith("multiplier", multiplier.toJson())));
+            sendMessage(new Message(MessageType.MULTIPLIER_ENABLE, objectWith("multiplier", CoinsPlugin.GSON.toJson(multiplier))));
         } catch (Exception ex) {
             coinsPlugin.log("An unexpected error has occurred while enabling a multiplier over messaging service.");
             coinsPlugin.log("Check plugin log files for more information, please report this bug on https://github.com/Beelzebu/Coins3-API/issues");
@@ -133,7 +189,7 @@ public abstract class AbstractMessagingService {
     public final void disableMultiplier(Multiplier multiplier) {
         Objects.requireNonNull(multiplier, "Multiplier can't be null");
         try {
-            sendMessage(new Message(MessageType.MULTIPLIER_DISABLE, objectWith("multiplier", multiplier.toJson())));
+            sendMessage(new Message(MessageType.MULTIPLIER_DISABLE, objectWith("multiplier", CoinsPlugin.GSON.toJson(multiplier))));
         } catch (Exception ex) {
             coinsPlugin.log("An unexpected error has occurred while disabling a multiplier over messaging service.");
             coinsPlugin.log("Check plugin log files for more information, please report this bug on https://github.com/Beelzebu/Coins3-API/issues");
@@ -163,6 +219,19 @@ public abstract class AbstractMessagingService {
      */
     protected abstract void sendMessage(JsonObject jsonObject);
 
+    /**
+     * Get the sequence for the next handoff of a user from this server. The sequence travels with the user, every
+     * server that receives a handoff remembers its sequence and the next handoff from that server uses the following
+     * one, so handoffs of the same user are ordered without depending on the clocks of the servers.
+     *
+     * @param uuid user to hand off.
+     * @return sequence for the next handoff of the user.
+     */
+    public long nextHandoffSequence(UUID uuid) {
+        Long lastSequence = handoffSequences.getIfPresent(uuid);
+        return lastSequence != null ? lastSequence + 1 : 1;
+    }
+
     /**
      * Send a {@link Message} over this messaging service
      *
@@ -190,16 +259,20 @@ public abstract class AbstractMessagingService {
      * @param jsonObject JSON message received in the messaging service implementation.
      */
     protected final void handleMessage(JsonObject jsonObject) {
-        Message message = CoinsPlugin.GSON.fromJson(jsonObject, Message.class);
-        coinsPlugin.debug("&6Messaging: &7Handling message: " + jsonObject);
+        Message message = Message.fromJson(jsonObject);
+        coinsPlugin.debug("&6Messaging: &7Handling message: %s", jsonObject);
         switch (message.getType()) {
             case USER_UPDATE: {
                 UUID uuid = UUID.fromString(message.getData().get("uuid").getAsString());
                 double coins = message.getData().get("coins").getAsDouble();
                 double oldCoins = message.getData().has("oldCoins") ? message.getData().get("oldCoins").getAsDouble() : coins;
+                CoinsAPI.getExistenceCache().addPlayer(uuid, null);
                 if (coins != oldCoins) {
                     coinsPlugin.getBootstrap().callCoinsChangeEvent(uuid, oldCoins, coins);
                 }
+                if (coinsPlugin.getCache().getCacheType() == CacheType.REDIS) {
+                    return; // the cache is shared and already updated, an old message must not overwrite a newer balance
+                }
                 OptionalDouble optionalCoins = coinsPlugin.getCache().getCoins(uuid);
                 if (optionalCoins.isPresent() && optionalCoins.getAsDouble() == coins) {
                     return;
@@ -207,9 +280,35 @@ public abstract class AbstractMessagingService {
                 coinsPlugin.getCache().updatePlayer(uuid, coins);
             }
             break;
+            case USER_CREATE: {
+                UUID uuid = UUID.fromString(message.getData().get("uuid").getAsString());
+                String name = message.getData().has("name") ? message.getData().get("name").getAsString() : null;
+                CoinsAPI.getExistenceCache().addPlayer(uuid, name);
+            }
+            break;
+            case USER_HANDOFF: {
+                if (!message.getData().get("server").getAsString().equalsIgnoreCase(CoinsAPI.getServerName())) {
+                    return; // only the destination caches the balance, other servers may have a newer one
+                }
+                if (coinsPlugin.getCache().getCacheType() == CacheType.REDIS) {
+                    return; // the cache is shared, the balance in it may be newer than the handoff
+                }
+                UUID uuid = UUID.fromString(message.getData().get("uuid").getAsString());
+                double coins = message.getData().get("coins").getAsDouble();
+                long sequence = message.getData().get("sequence").getAsLong();
+                Long lastSequence = handoffSequences.getIfPresent(uuid);
+                if (lastSequence != null && lastSequence >= sequence) {
+                    coinsPlugin.debug("Ignoring old handoff for %s", uuid);
+                    return;
+                }
+                handoffSequences.put(uuid, sequence);
+                CoinsAPI.getExistenceCache().addPlayer(uuid, null);
+                coinsPlugin.getCache().updatePlayer(uuid, coins);
+            }
+            break;
             case EXECUTOR_REQUEST: { // other server is requesting executors from this server.
                 coinsPlugin.loadExecutors();
-                ExecutorManager.getExecutors().forEach(ex -> sendMessage(new Message(MessageType.EXECUTOR_SEND, objectWith("executor", ex.toJson()))));
+                ExecutorManager.getExecutors().forEach(ex -> sendMessage(new Message(MessageType.EXECUTOR_SEND, objectWith("executor", CoinsPlugin.GSON.toJson(ex)))));
             }
             break;
             case EXECUTOR_SEND: { // other server sent an executor
@@ -217,36 +316,37 @@ public abstract class AbstractMessagingService {
             }
             break;
             case MULTIPLIER_REQUEST: { // other server is requesting multipliers from this server
-                coinsPlugin.getCache().getMultipliers().forEach(multiplier -> sendMessage(new Message(MessageType.MULTIPLIER_UPDATE, objectWith("multiplier", multiplier.toJson()))));
+                coinsPlugin.getCache().getMultipliers().forEach(multiplier -> sendMessage(new Message(MessageType.MULTIPLIER_UPDATE, objectWith("multiplier", CoinsPlugin.GSON.toJson(multiplier)))));
             }
             break;
             case MULTIPLIER_UPDATE: {
-                Multiplier multiplier = Multiplier.fromJson(message.getData().getAsJsonObject("multiplier").toString());
+                Multiplier multiplier = Multiplier.fromJson(message.getData().get("multiplier").getAsString());
                 if (multiplier != null) {
                     Optional<Multiplier> optionalMultiplier = coinsPlugin.getCache().getMultiplier(multiplier.getId());
                     if (optionalMultiplier.isPresent()) {
                         if (optionalMultiplier.get().equals(multiplier)) {
                             return;
                         }
-                        coinsPlugin.debug("Received a different version of multiplier: " + multiplier.getId());
-                        coinsPlugin.debug("Old multiplier: " + optionalMultiplier.get().toString());
-                        coinsPlugin.debug("New multiplier: " + multiplier.toString());
+                        coinsPlugin.debug("Received a different version of multiplier: %s", multiplier.getId());
+                        coinsPlugin.debug("Old multiplier: %s", optionalMultiplier.get());
+                        coinsPlugin.debug("New multiplier: %s", multiplier);
                     }
                     coinsPlugin.getCache().addMultiplier(multiplier); // override multiplier since received multiplier is different
                 }
             }
             break;
-            case MULTIPLIER_ENABLE: {
-                Multiplier multiplier = Multiplier.fromJson(message.getData().getAsJsonObject("multiplier").toString());
+            case MULTIPLIER_ENABLE: { // other server won the slot for this multiplier, cache it so we don't try to enable other
+                Multiplier multiplier = Multiplier.fromJson(message.getData().get("multiplier").getAsString());
                 if (multiplier != null) {
-                    coinsPlugin.getBootstrap().callMultiplierEnableEvent(CoinsAPI.getMultiplier(multiplier.getId()));
+                    coinsPlugin.getCache().addMultiplier(multiplier);
+                    coinsPlugin.getBootstrap().callMultiplierEnableEvent(multiplier);
                 } else {
                     coinsPlugin.debug("Received a null multiplier from messaging service");
                 }
             }
             break;
             case MULTIPLIER_DISABLE: { // remove multiplier from cache and storage
-                Multiplier multiplier = Multiplier.fromJson(message.getData().getAsJsonObject("multiplier").getAsString());
+                Multiplier multiplier = Multiplier.fromJson(message.getData().get("multiplier").getAsString());
                 if (coinsPlugin.getStorageProvider().getStorageType().equals(StorageType.SQLITE)) {// may be it wasn't removed from this database
                     coinsPlugin.getStorageProvider().deleteMultiplier(multiplier);
                 }
@@ -259,12 +359,9 @@ public abstract class AbstractMessagingService {
     }
 
     // simple method to use one line lambda expressions when handling messages
-    private JsonObject objectWith(String key, JsonObject value) {
-        return add(new JsonObject(), key, value);
-    }
-
-    private JsonObject add(JsonObject jobj, String key, Object value) {
-        jobj.addProperty(key, value.toString());
+    private JsonObject objectWith(String key, String json) {
+        JsonObject jobj = new JsonObject();
+        jobj.addProperty(key, json);
         return jobj;
     }
 
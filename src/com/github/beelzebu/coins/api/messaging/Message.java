@@ -18,9 +18,18 @@
  */
 package com.github.beelzebu.coins.api.messaging;
 
-import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 
+@JsonAdapter(Message.Adapter.class)
 public class Message {
 
     private final MessageType type;
@@ -40,6 +49,83 @@ public class Message {
     }
 
     public JsonObject toJson() {
-        return CoinsPlugin.GSON.toJsonTree(this).getAsJsonObject();
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("type", type.name());
+        jsonObject.add("data", data);
+        return jsonObject;
+    }
+
+    /**
+     * Read a message from the json object sent by other server, without copying the data of the message.
+     *
+     * @param jsonObject json object created by {@link #toJson()}.
+     * @return message contained in the json object.
+     */
+    public static Message fromJson(JsonObject jsonObject) {
+        JsonElement type = jsonObject.get("type");
+        JsonElement data = jsonObject.get("data");
+        if (type == null || data == null || !data.isJsonObject()) {
+            throw new JsonSyntaxException("Invalid message: " + jsonObject);
+        }
+        return new Message(getType(type.getAsString()), data.getAsJsonObject());
+    }
+
+    private static MessageType getType(String name) {
+        try {
+            return MessageType.valueOf(name);
+        } catch (IllegalArgumentException ex) {
+            throw new JsonSyntaxException("Unknown message type: " + name, ex);
+        }
+    }
+
+    /**
+     * Write and read messages directly from json streams, without reflection.
+     */
+    static final class Adapter extends TypeAdapter<Message> {
+
+        private static final TypeAdapter<JsonElement> JSON_ELEMENT = new Gson().getAdapter(JsonElement.class);
+
+        @Override
+        public void write(JsonWriter out, Message message) throws IOException {
+            if (message == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("type").value(message.type.name());
+            out.name("data");
+            JSON_ELEMENT.write(out, message.data);
+            out.endObject();
+        }
+
+        @Override
+        public Message read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            MessageType type = null;
+            JsonObject data = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "type":
+                        type = getType(in.nextString());
+                        break;
+                    case "data":
+                        JsonElement element = JSON_ELEMENT.read(in);
+                        data = element.isJsonObject() ? element.getAsJsonObject() : null;
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            if (type == null || data == null) {
+                throw new JsonSyntaxException("Message without type or data");
+            }
+            return new Message(type, data);
+        }
     }
 }
@@ -29,6 +29,14 @@ enum MessageType {
      * Send user coins update
      */
     USER_UPDATE,
+    /**
+     * Send a new or renamed user to other servers
+     */
+    USER_CREATE,
+    /**
+     * Send the balance of a user that is moving to other server
+     */
+    USER_HANDOFF,
     /**
      * Request other servers to send executors
      */
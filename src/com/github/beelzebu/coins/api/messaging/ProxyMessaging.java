@@ -64,7 +64,7 @@ public abstract class ProxyMessaging extends AbstractMessagingService {
      */
     @Override
     protected final void sendMessage(JsonObject jsonObject) {
-        Message message = CoinsPlugin.GSON.fromJson(jsonObject, Message.class);
-        sendMessage(jsonObject.toString(), message.getType() != MessageType.MULTIPLIER_ENABLE);
+        MessageType type = MessageType.valueOf(jsonObject.get("type").getAsString());
+        sendMessage(jsonObject.toString(), type != MessageType.MULTIPLIER_ENABLE);
     }
 }
@@ -27,10 +27,12 @@ import com.github.beelzebu.coins.api.messaging.AbstractMessagingService;
 import com.github.beelzebu.coins.api.messaging.MessagingServiceType;
 import com.github.beelzebu.coins.api.storage.StorageProvider;
 import com.github.beelzebu.coins.api.storage.StorageType;
+import com.github.beelzebu.coins.api.utils.AsyncFileAppender;
 import com.google.gson.Gson;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 /**
  * @author Beelzebu
@@ -82,10 +84,90 @@ public interface CoinsPlugin <T extends CoinsBootstrap> {
 
     void debug(SQLException ex);
 
+    /**
+     * Get the appender used to write the debug file, implementations should keep a single appender open while the
+     * debug file is enabled and write debug messages to the file through it.
+     *
+     * @return appender for the debug file or null if the debug file isn't open.
+     */
+    default AsyncFileAppender getDebugAppender() {
+        return null;
+    }
+
+    /**
+     * Check if debug messages will be logged somewhere, either in the console or in an open debug file. Callers
+     * building expensive debug messages should check this before, or use {@link #debug(Supplier)}.
+     *
+     * @return <i>true</i> if debug messages are logged, <i>false</i> otherwise.
+     */
+    default boolean isDebug() {
+        CoinsConfig.Settings settings = getConfig().getSettings();
+        if (settings.isDebug()) {
+            return true;
+        }
+        if (!settings.isDebugFile()) {
+            return false;
+        }
+        AsyncFileAppender appender = getDebugAppender();
+        return appender != null && appender.isOpen();
+    }
+
+    /**
+     * Log a debug message built lazily, the supplier is only called if debug is enabled.
+     *
+     * @param message supplier for the message to log.
+     */
+    default void debug(Supplier<String> message) {
+        if (isDebug()) {
+            debug(message.get());
+        }
+    }
+
+    /**
+     * Log a debug message with one parameter, the message is only formatted if debug is enabled.
+     *
+     * @param message message to log with placeholders.
+     * @param arg     value to replace in the message.
+     */
+    default void debug(String message, Object arg) {
+        if (isDebug()) {
+            debug(message, new Object[]{arg});
+        }
+    }
+
+    /**
+     * Log a debug message with two parameters, the message is only formatted if debug is enabled.
+     *
+     * @param message message to log with placeholders.
+     * @param arg1    first value to replace in the message.
+     * @param arg2    second value to replace in the message.
+     */
+    default void debug(String message, Object arg1, Object arg2) {
+        if (isDebug()) {
+            debug(message, new Object[]{arg1, arg2});
+        }
+    }
+
     String getStackTrace(Exception e);
 
+    /**
+     * Get the UUID of a player from the server or the database, the API resolves UUIDs through
+     * {@link com.github.beelzebu.coins.api.utils.UUIDUtil}, which caches the values returned by this method.
+     *
+     * @param name   name of the player.
+     * @param fromdb if the UUID must be requested to the database instead of the server.
+     * @return UUID of the player or null if it can't be found.
+     */
     UUID getUniqueId(String name, boolean fromdb);
 
+    /**
+     * Get the name of a player from the server or the database, the API resolves names through
+     * {@link com.github.beelzebu.coins.api.utils.UUIDUtil}, which caches the values returned by this method.
+     *
+     * @param uniqueId UUID of the player.
+     * @param fromdb   if the name must be requested to the database instead of the server.
+     * @return name of the player or null if it can't be found.
+     */
     String getName(UUID uniqueId, boolean fromdb);
 
     CoinsConfig getConfig();
@@ -0,0 +1,178 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.storage;
+
+import com.github.beelzebu.coins.api.LedgerEntry;
+import com.github.beelzebu.coins.api.plugin.CoinsBootstrap;
+import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nonnull;
+
+/**
+ * Writes {@link LedgerEntry ledger entries} to the storage in the background, so recording a balance change doesn't
+ * add a write to every balance update. Entries are kept in a bounded queue and written in batches by a single thread,
+ * if the queue is full because the storage can't keep up new entries are discarded and counted, so a slow storage
+ * never blocks balance updates. A batch that can't be written after a few tries is written one entry at a time, and
+ * the entries that still fail are discarded, so a single bad entry doesn't stop the ledger.
+ *
+ * @author Beelzebu
+ */
+public final class LedgerWriter {
+
+    private static final long DROPPED_LOG_INTERVAL_MILLIS = 60000;
+    private static final int MAX_ATTEMPTS = 5;
+    private final CoinsPlugin<? extends CoinsBootstrap> plugin;
+    private final StorageProvider storageProvider;
+    private final BlockingQueue<LedgerEntry> queue;
+    private final int batchSize;
+    private final long flushMillis;
+    private final Thread writer;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running = true;
+    private long lastDroppedLog = 0;
+
+    public LedgerWriter(@Nonnull CoinsPlugin<? extends CoinsBootstrap> plugin, @Nonnull StorageProvider storageProvider, int queueSize, int batchSize, long flushMillis) {
+        this.plugin = plugin;
+        this.storageProvider = storageProvider;
+        queue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+        this.batchSize = Math.max(batchSize, 1);
+        this.flushMillis = Math.max(flushMillis, 1);
+        writer = new Thread(this::writeLoop, "Coins Ledger Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queue an entry to be written to the ledger, this never blocks.
+     *
+     * @param entry entry to write.
+     * @return <i>true</i> if the entry was queued, <i>false</i> if the queue is full and the entry was discarded.
+     */
+    public boolean record(@Nonnull LedgerEntry entry) {
+        if (running && queue.offer(entry)) {
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Get the amount of entries discarded because the queue was full.
+     *
+     * @return discarded entries since this writer was created.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stop accepting entries and write all queued entries before returning.
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            plugin.log(queue.size() + " ledger entries couldn't be written before shutting down.");
+        }
+    }
+
+    private void writeLoop() {
+        List<LedgerEntry> batch = new ArrayList<>(batchSize);
+        int attempts = 0;
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    LedgerEntry first = queue.poll(flushMillis, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                }
+                queue.drainTo(batch, batchSize - batch.size());
+                if (storageProvider.writeLedger(batch)) {
+                    batch.clear();
+                    attempts = 0;
+                } else if (++attempts >= MAX_ATTEMPTS) {
+                    writeEach(batch);
+                    batch.clear();
+                    attempts = 0;
+                } else if (running) { // keep the batch and try again later, new entries wait in the queue
+                    Thread.sleep(flushMillis * attempts);
+                } else {
+                    plugin.log(batch.size() + " ledger entries couldn't be written before shutting down.");
+                    batch.clear();
+                }
+                logDropped();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException ex) {
+                plugin.log("An error has occurred while writing " + batch.size() + " entries to the ledger.");
+                plugin.debug(ex);
+                batch.clear();
+                attempts = 0;
+            }
+        }
+    }
+
+    /**
+     * Write the entries of a batch that failed too many times one by one, discarding the ones that can't be written.
+     *
+     * @param batch entries to write.
+     */
+    private void writeEach(List<LedgerEntry> batch) {
+        int discarded = 0;
+        List<LedgerEntry> single = new ArrayList<>(1);
+        for (LedgerEntry entry : batch) {
+            single.clear();
+            single.add(entry);
+            boolean written;
+            try {
+                written = storageProvider.writeLedger(single);
+            } catch (RuntimeException ex) {
+                plugin.debug(ex);
+                written = false;
+            }
+            if (!written) {
+                discarded++;
+                plugin.debug("Discarding ledger entry %s after %s failed attempts.", entry.getTransactionId(), MAX_ATTEMPTS);
+            }
+        }
+        if (discarded > 0) {
+            plugin.log(discarded + " ledger entries were discarded because they couldn't be written after " + MAX_ATTEMPTS + " attempts.");
+        }
+    }
+
+    private void logDropped() {
+        long droppedEntries = dropped.get();
+        if (droppedEntries > 0 && System.currentTimeMillis() - lastDroppedLog > DROPPED_LOG_INTERVAL_MILLIS) {
+            lastDroppedLog = System.currentTimeMillis();
+            plugin.log(droppedEntries + " ledger entries were discarded because the storage can't keep up.");
+        }
+    }
+}
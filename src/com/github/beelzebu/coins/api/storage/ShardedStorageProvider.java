@@ -0,0 +1,367 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.storage;
+
+import com.github.beelzebu.coins.api.CoinsResponse;
+import com.github.beelzebu.coins.api.CoinsUser;
+import com.github.beelzebu.coins.api.LedgerEntry;
+import com.github.beelzebu.coins.api.Multiplier;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+
+/**
+ * Storage provider that splits players between many storage providers, usually {@link
+ * com.github.beelzebu.coins.api.storage.sql.SQLDatabase} instances connected to different databases. Every player is
+ * stored in the shard chosen by a consistent hash of his UUID, so adding a shard only moves a small part of the
+ * players. Multipliers are always stored in the home shard.
+ *
+ * <p> Operations involving players of different shards, like {@link com.github.beelzebu.coins.api.CoinsAPI#payCoins(UUID,
+ * UUID, double)}, are not atomic, they rely on the compensating actions done by the API when the second operation
+ * fails.
+ *
+ * @author Beelzebu
+ */
+public final class ShardedStorageProvider implements StorageProvider {
+
+    private static final int VIRTUAL_NODES = 128;
+    private final List<StorageProvider> shards;
+    private final StorageProvider home;
+    private final TreeMap<Long, StorageProvider> ring = new TreeMap<>();
+
+    /**
+     * Create a sharded storage provider, the order of the shards must be the same in all servers and must not change,
+     * new shards must be added at the end.
+     *
+     * @param shards    storage providers for every shard.
+     * @param homeShard index of the shard where multipliers are stored.
+     */
+    public ShardedStorageProvider(@Nonnull List<? extends StorageProvider> shards, int homeShard) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        if (homeShard < 0 || homeShard >= shards.size()) {
+            throw new IllegalArgumentException("Invalid home shard: " + homeShard);
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        home = shards.get(homeShard);
+        for (int i = 0; i < shards.size(); i++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                ring.put(hash("shard-" + i + "#" + node), shards.get(i));
+            }
+        }
+    }
+
+    /**
+     * Get the shard that stores a player.
+     *
+     * @param uuid UUID of the player.
+     * @return storage provider for the player.
+     */
+    public StorageProvider getShard(@Nonnull UUID uuid) {
+        Map.Entry<Long, StorageProvider> entry = ring.ceilingEntry(hash(uuid.toString()));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Get all shards of this provider.
+     *
+     * @return unmodifiable list of shards.
+     */
+    public List<StorageProvider> getShards() {
+        return shards;
+    }
+
+    @Override
+    public void setup() {
+        shards.forEach(StorageProvider::setup);
+    }
+
+    @Override
+    public void shutdown() {
+        shards.forEach(StorageProvider::shutdown);
+    }
+
+    @Override
+    public CoinsResponse createPlayer(@Nonnull UUID uuid, @Nonnull String name, double balance) {
+        return getShard(uuid).createPlayer(uuid, name, balance);
+    }
+
+    @Override
+    public double loginPlayer(@Nonnull UUID uuid, @Nonnull String name, double balance) {
+        return getShard(uuid).loginPlayer(uuid, name, balance);
+    }
+
+    @Override
+    public CoinsResponse updatePlayer(@Nonnull UUID uuid, @Nonnull String name) {
+        return getShard(uuid).updatePlayer(uuid, name);
+    }
+
+    @Override
+    public UUID getUUID(String name) {
+        for (StorageProvider shard : shards) {
+            UUID uuid = shard.getUUID(name);
+            if (uuid != null) {
+                return uuid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String getName(UUID uuid) {
+        return getShard(uuid).getName(uuid);
+    }
+
+    @Override
+    public Map<UUID, String> getNames(@Nonnull Collection<UUID> uuids) {
+        Map<StorageProvider, List<UUID>> byShard = new LinkedHashMap<>();
+        uuids.stream().filter(Objects::nonNull).forEach(uuid -> byShard.computeIfAbsent(getShard(uuid), shard -> new ArrayList<>()).add(uuid));
+        Map<UUID, String> names = new HashMap<>(uuids.size());
+        byShard.forEach((shard, shardUUIDs) -> names.putAll(shard.getNames(shardUUIDs)));
+        return names;
+    }
+
+    @Override
+    public boolean flushPlayer(@Nonnull UUID uuid) {
+        return getShard(uuid).flushPlayer(uuid);
+    }
+
+    @Override
+    public boolean writeLedger(@Nonnull List<LedgerEntry> entries) {
+        Map<StorageProvider, List<LedgerEntry>> byShard = new LinkedHashMap<>();
+        entries.forEach(entry -> byShard.computeIfAbsent(getShard(entry.getUniqueId()), shard -> new ArrayList<>()).add(entry));
+        boolean written = true;
+        for (Map.Entry<StorageProvider, List<LedgerEntry>> shard : byShard.entrySet()) {
+            if (shard.getKey().writeLedger(shard.getValue())) {
+                entries.removeAll(shard.getValue()); // don't write them again if other shard fails
+            } else {
+                written = false;
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public double getCoins(UUID uuid) {
+        return getShard(uuid).getCoins(uuid);
+    }
+
+    @Override
+    public CoinsResponse setCoins(UUID uuid, double balance) {
+        return getShard(uuid).setCoins(uuid, balance);
+    }
+
+    @Override
+    public boolean isindb(UUID uuid) {
+        return getShard(uuid).isindb(uuid);
+    }
+
+    @Override
+    public boolean isindb(String name) {
+        for (StorageProvider shard : shards) {
+            if (shard.isindb(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the top players of all shards, every shard returns his own top players ordered by balance and they are
+     * merged keeping the order, so no more than {@code top} players are read from each shard.
+     *
+     * @param top amount of players to get.
+     * @return top players of all shards.
+     */
+    @Override
+    public LinkedHashSet<CoinsUser> getTopPlayers(int top) {
+        PriorityQueue<ShardCursor> cursors = new PriorityQueue<>(shards.size(), Comparator.comparingDouble((ShardCursor cursor) -> cursor.current.getCoins()).reversed());
+        for (StorageProvider shard : shards) {
+            Iterator<CoinsUser> iterator = shard.getTopPlayers(top).iterator();
+            if (iterator.hasNext()) {
+                cursors.add(new ShardCursor(iterator));
+            }
+        }
+        LinkedHashSet<CoinsUser> topPlayers = new LinkedHashSet<>();
+        while (topPlayers.size() < top && !cursors.isEmpty()) {
+            ShardCursor cursor = cursors.poll();
+            topPlayers.add(cursor.current);
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+        return topPlayers;
+    }
+
+    @Override
+    public Multiplier saveMultiplier(Multiplier multiplier) throws RuntimeException {
+        return home.saveMultiplier(multiplier);
+    }
+
+    @Override
+    public Multiplier getMultiplier(int id) {
+        return home.getMultiplier(id);
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliers() {
+        return home.getMultipliers();
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliers(String server) {
+        return home.getMultipliers(server);
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliers(String server, boolean enabled) {
+        return home.getMultipliers(server, enabled);
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliersFor(UUID uuid) {
+        return home.getMultipliersFor(uuid);
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliersFor(UUID uuid, boolean enabled) {
+        return home.getMultipliersFor(uuid, enabled);
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliersFor(UUID uuid, String server) {
+        return home.getMultipliersFor(uuid, server);
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliersFor(UUID uuid, String server, boolean enabled) {
+        return home.getMultipliersFor(uuid, server, enabled);
+    }
+
+    @Override
+    public void enableMultiplier(Multiplier multiplier) {
+        home.enableMultiplier(multiplier);
+    }
+
+    @Override
+    public void deleteMultiplier(Multiplier multiplier) {
+        home.deleteMultiplier(multiplier);
+    }
+
+    @Override
+    public void updateMultiplier(Multiplier multiplier) {
+        home.updateMultiplier(multiplier);
+    }
+
+    @Override
+    public boolean acquireMultiplierLease(Multiplier multiplier, long expires) {
+        return home.acquireMultiplierLease(multiplier, expires);
+    }
+
+    @Override
+    public void releaseMultiplierLease(Multiplier multiplier) {
+        home.releaseMultiplierLease(multiplier);
+    }
+
+    @Override
+    @Deprecated
+    public LinkedHashMap<String, Double> getAllPlayers() {
+        LinkedHashMap<String, Double> players = new LinkedHashMap<>();
+        forEachPlayer(user -> players.put(user.getName() + "," + user.getUniqueId(), user.getCoins()));
+        return players;
+    }
+
+    @Override
+    public boolean forEachPlayer(@Nonnull Consumer<CoinsUser> action) {
+        boolean read = true;
+        for (StorageProvider shard : shards) {
+            read &= shard.forEachPlayer(action);
+        }
+        return read;
+    }
+
+    /**
+     * Run a logical operation inside a unit of work of every shard, shards only take resources when they are used, so
+     * this doesn't open a connection for shards that aren't used by the work.
+     */
+    @Override
+    public <T> T unitOfWork(Supplier<T> work) {
+        Supplier<T> nested = work;
+        for (StorageProvider shard : shards) {
+            Supplier<T> inner = nested;
+            nested = () -> shard.unitOfWork(inner);
+        }
+        return nested.get();
+    }
+
+    @Override
+    public void releaseUnitOfWork() {
+        shards.forEach(StorageProvider::releaseUnitOfWork);
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return shards.stream().mapToInt(StorageProvider::getMaxConcurrency).sum();
+    }
+
+    @Override
+    public StorageType getStorageType() {
+        return home.getStorageType();
+    }
+
+    private static long hash(String key) {
+        return Hashing.murmur3_128().hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+
+    private static final class ShardCursor {
+
+        private final Iterator<CoinsUser> iterator;
+        private CoinsUser current;
+
+        private ShardCursor(Iterator<CoinsUser> iterator) {
+            this.iterator = iterator;
+            current = iterator.next();
+        }
+
+        private boolean advance() {
+            if (iterator.hasNext()) {
+                current = iterator.next();
+                return true;
+            }
+            return false;
+        }
+    }
+}
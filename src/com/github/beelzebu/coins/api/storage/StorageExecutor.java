@@ -0,0 +1,121 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.storage;
+
+import com.github.beelzebu.coins.api.plugin.CoinsBootstrap;
+import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executor used to run storage operations outside of the server threads, so storage work doesn't compete with other
+ * plugins in the scheduler of the server. The amount of operations running at the same time is capped to the size of
+ * the connection pool, so storage work can't starve or oversubscribe the pool.
+ *
+ * @author Beelzebu
+ * @see #create(CoinsPlugin, int, int)
+ */
+public abstract class StorageExecutor implements Executor {
+
+    private static final ThreadLocal<StorageExecutor> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Create the best storage executor for the running JVM, in Java 21 or newer every operation runs in a virtual
+     * thread, in older versions operations run in a bounded pool of platform threads.
+     *
+     * @param plugin         plugin instance, used to log why virtual threads can't be used.
+     * @param maxConcurrency max amount of operations running at the same time, usually the size of the connection
+     *                       pool.
+     * @param queueSize      max amount of operations waiting to run, when there are more new operations are
+     *                       rejected.
+     * @return storage executor for this JVM.
+     */
+    public static StorageExecutor create(CoinsPlugin<? extends CoinsBootstrap> plugin, int maxConcurrency, int queueSize) {
+        maxConcurrency = Math.max(maxConcurrency, 1);
+        ExecutorService virtualThreads = newVirtualThreadExecutor(plugin);
+        if (virtualThreads != null) {
+            return new VirtualStorageExecutor(virtualThreads, maxConcurrency, queueSize);
+        }
+        return new PlatformStorageExecutor(maxConcurrency, queueSize);
+    }
+
+    /**
+     * Run a storage operation in this executor.
+     *
+     * @param command operation to run.
+     * @throws RejectedExecutionException if there are too many operations waiting or this executor was shutdown.
+     */
+    @Override
+    public final void execute(Runnable command) {
+        dispatch(() -> {
+            CURRENT.set(this);
+            try {
+                command.run();
+            } finally {
+                CURRENT.remove();
+            }
+        });
+    }
+
+    /**
+     * Check if the current thread is running an operation from this executor, operations called from here can run
+     * directly in the current thread instead of waiting for another thread.
+     *
+     * @return <i>true</i> if the current thread belongs to this executor, <i>false</i> otherwise.
+     */
+    public final boolean inExecutor() {
+        return CURRENT.get() == this;
+    }
+
+    /**
+     * Get the max amount of operations that can run at the same time in this executor.
+     *
+     * @return max concurrency for this executor.
+     */
+    public abstract int getMaxConcurrency();
+
+    /**
+     * Stop accepting new operations and wait a few seconds for running operations to finish.
+     */
+    public abstract void shutdown();
+
+    /**
+     * Schedule a task to run in this executor.
+     *
+     * @param task task to run.
+     * @throws RejectedExecutionException if the task can't be accepted.
+     */
+    protected abstract void dispatch(Runnable task);
+
+    private static ExecutorService newVirtualThreadExecutor(CoinsPlugin<? extends CoinsBootstrap> plugin) {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException ex) { // not running in Java 21 or newer
+            return null;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            plugin.log("Virtual threads are available but can't be used, using platform threads for storage.");
+            plugin.debug(ex);
+            return null;
+        }
+    }
+}
@@ -20,11 +20,18 @@ package com.github.beelzebu.coins.api.storage;
 
 import com.github.beelzebu.coins.api.CoinsResponse;
 import com.github.beelzebu.coins.api.CoinsUser;
+import com.github.beelzebu.coins.api.LedgerEntry;
 import com.github.beelzebu.coins.api.Multiplier;
+import com.github.beelzebu.coins.api.MultiplierType;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import javax.annotation.Nonnull;
 
 /**
@@ -42,10 +49,45 @@ public interface StorageProvider {
 
     CoinsResponse updatePlayer(@Nonnull UUID uuid, @Nonnull String name);
 
+    /**
+     * Create a player with the given balance if he doesn't exist, or update his name, UUID and last login if he exists,
+     * and get his balance. This is called when a player joins, providers should override this to do it with as few
+     * requests as possible.
+     *
+     * @param uuid    UUID of the player.
+     * @param name    name of the player.
+     * @param balance balance for the player if he doesn't exist.
+     * @return balance of the player, or -1 if an error has occurred.
+     */
+    default double loginPlayer(@Nonnull UUID uuid, @Nonnull String name, double balance) {
+        if (createPlayer(uuid, name, balance).isFailed()) {
+            return -1;
+        }
+        return getCoins(uuid);
+    }
+
     UUID getUUID(String name);
 
     String getName(UUID uuid);
 
+    /**
+     * Get the names of many players at once, providers should override this to get all names with as few requests as
+     * possible.
+     *
+     * @param uuids UUIDs of the players.
+     * @return map with the name of every player found in the storage.
+     */
+    default Map<UUID, String> getNames(@Nonnull Collection<UUID> uuids) {
+        Map<UUID, String> names = new HashMap<>(uuids.size());
+        for (UUID uuid : uuids) {
+            String name = getName(uuid);
+            if (name != null) {
+                names.put(uuid, name);
+            }
+        }
+        return names;
+    }
+
     double getCoins(UUID uuid);
 
     CoinsResponse setCoins(UUID uuid, double balance);
@@ -80,7 +122,112 @@ public interface StorageProvider {
 
     void updateMultiplier(Multiplier multiplier);
 
+    /**
+     * Try to take the activation slot for the server and type of a multiplier, only one multiplier can hold the slot
+     * until the lease expires or is released, so when many servers try to enable a multiplier at the same time just
+     * one of them will win.
+     *
+     * <p> {@link MultiplierType#PERSONAL} multipliers don't use slots, and providers that aren't shared between
+     * servers don't need to implement this.
+     *
+     * @param multiplier multiplier that will be enabled.
+     * @param expires    time in millis when the lease expires.
+     * @return <i>true</i> if the slot was acquired for this multiplier, <i>false</i> if other multiplier holds it.
+     */
+    default boolean acquireMultiplierLease(Multiplier multiplier, long expires) {
+        return true;
+    }
+
+    /**
+     * Release the activation slot held by a multiplier, if any.
+     *
+     * @param multiplier multiplier that was disabled.
+     */
+    default void releaseMultiplierLease(Multiplier multiplier) {
+    }
+
+    /**
+     * Get all players from the storage, keys are the name and uuid of the player separated by a comma and values are
+     * the balance of the player.
+     *
+     * @return all players in the storage.
+     * @deprecated this loads the whole storage in memory, use {@link #forEachPlayer(Consumer)} instead.
+     */
+    @Deprecated
     LinkedHashMap<String, Double> getAllPlayers();
 
+    /**
+     * Iterate over all players in the storage without loading them all in memory, players are read while the action
+     * is executed, so a slow action slows down the read from the storage instead of buffering players. If the action
+     * throws an exception the iteration stops and the exception is thrown by this method.
+     *
+     * @param action action to execute for every player.
+     * @return <i>true</i> if all players were read, <i>false</i> if there was an error reading the storage.
+     */
+    @SuppressWarnings("deprecation")
+    default boolean forEachPlayer(@Nonnull Consumer<CoinsUser> action) {
+        for (Map.Entry<String, Double> entry : getAllPlayers().entrySet()) {
+            int separator = entry.getKey().lastIndexOf(',');
+            action.accept(new CoinsUser(UUID.fromString(entry.getKey().substring(separator + 1)), entry.getKey().substring(0, separator), entry.getValue()));
+        }
+        return true;
+    }
+
+    /**
+     * Run a logical operation that may call this provider many times, like a single {@link
+     * com.github.beelzebu.coins.api.CoinsAPI} call. Implementations may share resources between all calls made by
+     * the work in the current thread, for example a single database connection. Nested calls join the outer unit of
+     * work.
+     *
+     * @param work operation to run.
+     * @param <T>  type of the result of the operation.
+     * @return result of the operation.
+     */
+    default <T> T unitOfWork(Supplier<T> work) {
+        return work.get();
+    }
+
+    /**
+     * Release the resources held by the unit of work running in the current thread, like a pooled connection, without
+     * ending it. The next call to this provider in the same unit of work acquires them again. This should be called
+     * before slow operations that don't use the storage, like publishing messages or updating a remote cache, so they
+     * don't hold a connection from the pool.
+     */
+    default void releaseUnitOfWork() {
+    }
+
+    /**
+     * Get the max amount of operations that this provider can handle at the same time, for providers using a
+     * connection pool this is the size of the pool.
+     *
+     * @return max amount of concurrent operations.
+     */
+    default int getMaxConcurrency() {
+        return 4;
+    }
+
+    /**
+     * Write entries to the transaction ledger, this is called in batches by {@link LedgerWriter}. Providers that don't
+     * keep a ledger discard the entries. If only some entries can be written, the written ones must be removed from the
+     * list before returning <i>false</i>, so they aren't written twice.
+     *
+     * @param entries entries to write.
+     * @return <i>true</i> if the entries were written or discarded, <i>false</i> if they must be written again later.
+     */
+    default boolean writeLedger(@Nonnull List<LedgerEntry> entries) {
+        return true;
+    }
+
+    /**
+     * Write any balance change of a player that was accepted but wasn't written to the storage yet, this is called
+     * before the player leaves this server so the next server reads his latest balance.
+     *
+     * @param uuid player to flush.
+     * @return <i>true</i> if there is nothing pending for the player, <i>false</i> if some changes couldn't be written.
+     */
+    default boolean flushPlayer(@Nonnull UUID uuid) {
+        return true;
+    }
+
     StorageType getStorageType();
 }
@@ -25,5 +25,11 @@ public enum StorageType {
 
     MYSQL,
     MARIADB,
-    SQLITE
+    SQLITE,
+    /**
+     * Data is kept in memory and persisted to a log in the plugin folder, only for single servers.
+     *
+     * @see com.github.beelzebu.coins.api.storage.embedded.EmbeddedStorage
+     */
+    EMBEDDED
 }
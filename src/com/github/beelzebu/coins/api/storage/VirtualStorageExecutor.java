@@ -0,0 +1,88 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.storage;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage executor that runs every operation in a new virtual thread, since virtual threads are not limited the
+ * amount of operations running at the same time is capped with a semaphore, waiting operations just park their
+ * virtual thread.
+ *
+ * @author Beelzebu
+ */
+final class VirtualStorageExecutor extends StorageExecutor {
+
+    private final ExecutorService executor;
+    private final int maxConcurrency;
+    private final Semaphore running;
+    private final Semaphore pending;
+
+    VirtualStorageExecutor(ExecutorService executor, int maxConcurrency, int queueSize) {
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        running = new Semaphore(maxConcurrency);
+        pending = new Semaphore(maxConcurrency + queueSize);
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected void dispatch(Runnable task) {
+        if (!pending.tryAcquire()) {
+            throw new RejectedExecutionException("Too many storage operations waiting to run");
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    running.acquire();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    pending.release();
+                    return;
+                }
+                try {
+                    task.run();
+                } finally {
+                    running.release();
+                    pending.release();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            pending.release();
+            throw ex;
+        }
+    }
+}
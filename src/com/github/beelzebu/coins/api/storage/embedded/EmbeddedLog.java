@@ -0,0 +1,320 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.storage.embedded;
+
+import com.github.beelzebu.coins.api.plugin.CoinsBootstrap;
+import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log used by {@link EmbeddedStorage}. Every record is written with his length and a CRC32 checksum, so a
+ * record that was partially written when the server crashed is detected and discarded on recovery. Records are
+ * written by a single thread that groups all records waiting to be written and syncs them to disk with a single
+ * fsync, callers wait until their record is synced. If a group can't be synced the bytes written for it are removed
+ * from the file, or the log continues in a new generation if that isn't possible, so the records appended after a
+ * failure are never written after a partial record.
+ *
+ * @author Beelzebu
+ */
+final class EmbeddedLog {
+
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_BATCH = 1024;
+    private final CoinsPlugin<? extends CoinsBootstrap> plugin;
+    private final File directory;
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile long size;
+    private volatile boolean failed = false;
+    private FileChannel channel;
+    private long generation;
+
+    EmbeddedLog(CoinsPlugin<? extends CoinsBootstrap> plugin, File directory, long generation) throws IOException {
+        this.plugin = plugin;
+        this.directory = directory;
+        this.generation = generation;
+        channel = open(generation);
+        size = channel.size();
+        writer = new Thread(this::writeLoop, "Coins Embedded Log Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Get the file used by the log of a generation.
+     *
+     * @param directory storage directory.
+     * @param generation generation of the log.
+     * @return log file.
+     */
+    static File file(File directory, long generation) {
+        return new File(directory, "log-" + generation + ".dat");
+    }
+
+    /**
+     * Read all valid records from a log file, if the log ends with a partially written or corrupted record the file is
+     * truncated to the last valid record.
+     *
+     * @param plugin plugin used to log discarded records.
+     * @param file   log file to read.
+     * @param reader action to execute for every record.
+     * @return amount of records read.
+     * @throws IOException if the file can't be read.
+     */
+    static long replay(CoinsPlugin<? extends CoinsBootstrap> plugin, File file, Consumer<DataInputStream> reader) throws IOException {
+        long records = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = 0;
+            long length = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            while (position + HEADER_SIZE <= length) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                int payloadLength = header.getInt();
+                int checksum = header.getInt();
+                if (payloadLength <= 0 || position + HEADER_SIZE + payloadLength > length) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+                channel.read(payload, position + HEADER_SIZE);
+                crc.reset();
+                crc.update(payload.array(), 0, payloadLength);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                reader.accept(new DataInputStream(new ByteArrayInputStream(payload.array())));
+                position += HEADER_SIZE + payloadLength;
+                records++;
+            }
+            if (position < length) {
+                plugin.log("Discarding " + (length - position) + " bytes of incomplete records at the end of " + file.getName());
+                channel.truncate(position);
+                channel.force(true);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Append a record to this log.
+     *
+     * @param payload record to append.
+     * @return future completed when the record is synced to disk.
+     */
+    CompletableFuture<Void> append(byte[] payload) {
+        PendingWrite write = new PendingWrite(payload, null);
+        enqueue(write);
+        return write.future;
+    }
+
+    /**
+     * Start a new generation of this log, all records appended before this call are written to the current generation
+     * and all records appended after are written to the new generation.
+     *
+     * @param onRotate action executed in the writer thread with the new generation after the rotation.
+     * @return future completed when the log was rotated.
+     */
+    CompletableFuture<Void> rotate(Consumer<Long> onRotate) {
+        PendingWrite write = new PendingWrite(null, onRotate);
+        enqueue(write);
+        return write.future;
+    }
+
+    /**
+     * Get the size of the current generation of this log.
+     *
+     * @return size in bytes.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Write all pending records and close this log.
+     */
+    void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            plugin.log("Can't close the embedded storage log.");
+            plugin.debug(ex);
+        }
+    }
+
+    private void enqueue(PendingWrite write) {
+        if (!running) {
+            write.future.completeExceptionally(new IOException("Embedded storage log is closed"));
+            return;
+        }
+        queue.add(write);
+    }
+
+    private FileChannel open(long generation) throws IOException {
+        return FileChannel.open(file(directory, generation).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                List<PendingWrite> group = new ArrayList<>(batch.size());
+                for (PendingWrite write : batch) {
+                    if (write.onRotate == null) {
+                        group.add(write);
+                        continue;
+                    }
+                    sync(group);
+                    group.clear();
+                    rotate(write);
+                }
+                sync(group);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void sync(List<PendingWrite> group) {
+        if (group.isEmpty()) {
+            return;
+        }
+        if (failed) {
+            IOException ex = new IOException("Embedded storage log can't be written");
+            group.forEach(write -> write.future.completeExceptionally(ex));
+            return;
+        }
+        try {
+            ByteBuffer[] buffers = new ByteBuffer[group.size()];
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < group.size(); i++) {
+                byte[] payload = group.get(i).payload;
+                crc.reset();
+                crc.update(payload, 0, payload.length);
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+                buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+                buffers[i] = buffer;
+            }
+            long written = 0;
+            long total = 0;
+            for (ByteBuffer buffer : buffers) {
+                total += buffer.remaining();
+            }
+            while (written < total) {
+                written += channel.write(buffers);
+            }
+            channel.force(false);
+            size += written;
+            group.forEach(write -> write.future.complete(null));
+        } catch (IOException ex) {
+            plugin.log("Can't write to the embedded storage log, check the logs for more info.");
+            plugin.debug(ex);
+            discardPartialWrite();
+            group.forEach(write -> write.future.completeExceptionally(ex));
+        }
+    }
+
+    /**
+     * Remove the bytes written by a group that couldn't be synced, so the next group isn't written after a partial
+     * record, if the file can't be truncated the log continues in a new generation.
+     */
+    private void discardPartialWrite() {
+        try {
+            channel.truncate(size);
+            channel.force(true);
+            return;
+        } catch (IOException ex) {
+            plugin.log("Can't remove a partial write from the embedded storage log, starting a new generation.");
+            plugin.debug(ex);
+        }
+        try {
+            FileChannel next = open(generation + 1);
+            try {
+                channel.close();
+            } catch (IOException ignore) { // the old channel is broken anyway
+            }
+            channel = next;
+            generation++;
+            size = 0;
+        } catch (IOException ex) {
+            plugin.log("Can't start a new generation of the embedded storage log, no more changes will be written.");
+            plugin.debug(ex);
+            failed = true;
+        }
+    }
+
+    private void rotate(PendingWrite write) {
+        try {
+            FileChannel next = open(generation + 1);
+            channel.close();
+            channel = next;
+            generation++;
+            size = 0;
+            write.onRotate.accept(generation);
+            write.future.complete(null);
+        } catch (IOException | RuntimeException ex) {
+            plugin.log("Can't rotate the embedded storage log, check the logs for more info.");
+            plugin.debug(ex);
+            write.future.completeExceptionally(ex);
+        }
+    }
+
+    private static final class PendingWrite {
+
+        private final byte[] payload;
+        private final Consumer<Long> onRotate;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingWrite(byte[] payload, Consumer<Long> onRotate) {
+            this.payload = payload;
+            this.onRotate = onRotate;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.storage.embedded;
+
+import java.util.UUID;
+
+/**
+ * Immutable data of a player stored in {@link EmbeddedStorage}.
+ *
+ * @author Beelzebu
+ */
+final class EmbeddedPlayer {
+
+    private final UUID uniqueId;
+    private final String name;
+    private final double balance;
+    private final long lastLogin;
+
+    EmbeddedPlayer(UUID uniqueId, String name, double balance, long lastLogin) {
+        this.uniqueId = uniqueId;
+        this.name = name;
+        this.balance = balance;
+        this.lastLogin = lastLogin;
+    }
+
+    UUID getUniqueId() {
+        return uniqueId;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    double getBalance() {
+        return balance;
+    }
+
+    long getLastLogin() {
+        return lastLogin;
+    }
+
+    EmbeddedPlayer withBalance(double balance) {
+        return new EmbeddedPlayer(uniqueId, name, balance, lastLogin);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.storage.embedded;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Snapshot of all data stored in {@link EmbeddedStorage}, written when the log is compacted. Snapshots are written to
+ * a temporary file and moved when they are complete, and are read memory mapped, verifying the checksum stored at the
+ * end of the file before reading any data.
+ *
+ * @author Beelzebu
+ */
+final class EmbeddedSnapshot {
+
+    private static final int MAGIC = 0x434F494E;
+    private static final int VERSION = 1;
+
+    private EmbeddedSnapshot() {
+    }
+
+    /**
+     * Get the file used by the snapshot of a generation, the snapshot contains all data written before the log of the
+     * same generation.
+     *
+     * @param directory  storage directory.
+     * @param generation generation of the snapshot.
+     * @return snapshot file.
+     */
+    static File file(File directory, long generation) {
+        return new File(directory, "snapshot-" + generation + ".dat");
+    }
+
+    /**
+     * Write a snapshot.
+     *
+     * @param file             file for the snapshot.
+     * @param players          all players.
+     * @param multipliers      all multipliers as json by their id.
+     * @param nextMultiplierId id for the next multiplier.
+     * @throws IOException if the snapshot can't be written.
+     */
+    static void write(File file, Iterable<EmbeddedPlayer> players, Map<Integer, String> multipliers, int nextMultiplierId) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fos, crc)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(nextMultiplierId);
+            for (EmbeddedPlayer player : players) {
+                out.writeByte(1);
+                out.writeLong(player.getUniqueId().getMostSignificantBits());
+                out.writeLong(player.getUniqueId().getLeastSignificantBits());
+                out.writeDouble(player.getBalance());
+                out.writeLong(player.getLastLogin());
+                writeString(out, player.getName());
+            }
+            out.writeByte(0);
+            for (Map.Entry<Integer, String> multiplier : multipliers.entrySet()) {
+                out.writeByte(1);
+                out.writeInt(multiplier.getKey());
+                writeString(out, multiplier.getValue());
+            }
+            out.writeByte(0);
+            out.flush();
+            DataOutputStream trailer = new DataOutputStream(fos);
+            trailer.writeInt((int) crc.getValue());
+            trailer.flush();
+            fos.getChannel().force(true);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a snapshot.
+     *
+     * @param file        snapshot file.
+     * @param players     action executed for every player.
+     * @param multipliers action executed for every multiplier.
+     * @return id for the next multiplier.
+     * @throws IOException if the snapshot can't be read or is corrupted.
+     */
+    static int read(File file, Consumer<EmbeddedPlayer> players, BiConsumer<Integer, String> multipliers) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < 16 || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Invalid snapshot size: " + channel.size());
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int dataLength = buffer.limit() - 4;
+            ByteBuffer data = buffer.duplicate();
+            data.limit(dataLength);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if ((int) crc.getValue() != buffer.getInt(dataLength)) {
+                throw new IOException("Snapshot " + file.getName() + " is corrupted");
+            }
+            buffer.limit(dataLength);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Unknown snapshot format in " + file.getName());
+            }
+            int nextMultiplierId = buffer.getInt();
+            while (buffer.get() == 1) {
+                UUID uuid = new UUID(buffer.getLong(), buffer.getLong());
+                double balance = buffer.getDouble();
+                long lastLogin = buffer.getLong();
+                players.accept(new EmbeddedPlayer(uuid, readString(buffer), balance, lastLogin));
+            }
+            while (buffer.get() == 1) {
+                int id = buffer.getInt();
+                multipliers.accept(id, readString(buffer));
+            }
+            return nextMultiplierId;
+        } catch (RuntimeException ex) { // buffer underflow from a truncated file
+            throw new IOException("Snapshot " + file.getName() + " can't be read", ex);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,645 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.storage.embedded;
+
+import com.github.beelzebu.coins.api.CoinsAPI;
+import com.github.beelzebu.coins.api.CoinsResponse;
+import com.github.beelzebu.coins.api.CoinsUser;
+import com.github.beelzebu.coins.api.Multiplier;
+import com.github.beelzebu.coins.api.plugin.CoinsBootstrap;
+import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
+import com.github.beelzebu.coins.api.storage.StorageProvider;
+import com.github.beelzebu.coins.api.storage.StorageType;
+import com.github.beelzebu.coins.api.utils.UUIDUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
+
+/**
+ * Storage provider for a single server that keeps all data in memory and persists every change to an append only
+ * log in the plugin folder, changes are confirmed when they are synced to disk. When the log is too big it is
+ * compacted in background into a snapshot, on startup the latest snapshot is loaded and the log written after it is
+ * replayed.
+ *
+ * @author Beelzebu
+ */
+public final class EmbeddedStorage implements StorageProvider {
+
+    private static final byte PLAYER = 1;
+    private static final byte DELETE_PLAYER = 2;
+    private static final byte MULTIPLIER = 3;
+    private static final byte DELETE_MULTIPLIER = 4;
+    private static final int DEFAULT_COMPACT_SIZE_MB = 16;
+    private final CoinsPlugin<? extends CoinsBootstrap> plugin;
+    private final File directory;
+    private final Map<UUID, EmbeddedPlayer> players = new ConcurrentHashMap<>();
+    private final Map<String, UUID> names = new ConcurrentHashMap<>();
+    private final Map<Integer, String> multipliers = new ConcurrentHashMap<>();
+    private final AtomicInteger nextMultiplierId = new AtomicInteger(1);
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final Object writeLock = new Object();
+    private long compactSize;
+    private volatile EmbeddedLog log;
+
+    public EmbeddedStorage(CoinsPlugin<? extends CoinsBootstrap> plugin) {
+        this.plugin = plugin;
+        directory = new File(plugin.getBootstrap().getDataFolder(), "storage");
+    }
+
+    @Override
+    public void setup() {
+        compactSize = Math.max(plugin.getConfig().getInt("Embedded.Compact Size MB", DEFAULT_COMPACT_SIZE_MB), 1) * 1024L * 1024L;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalStateException("Can't create the storage directory " + directory);
+        }
+        try {
+            long generation = recover();
+            log = new EmbeddedLog(plugin, directory, generation);
+        } catch (IOException | UncheckedIOException ex) {
+            throw new IllegalStateException("Can't load the embedded storage", ex);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    @Override
+    public CoinsResponse createPlayer(@Nonnull UUID uuid, @Nonnull String name, double balance) {
+        String lowerName = name.toLowerCase();
+        if (players.containsKey(uuid) || names.containsKey(lowerName)) {
+            return updatePlayer(uuid, name);
+        }
+        EmbeddedPlayer player = new EmbeddedPlayer(uuid, lowerName, balance, System.currentTimeMillis());
+        if (!write(undo -> {
+            putPlayer(player, undo);
+            return new byte[][]{encodePlayer(player)};
+        })) {
+            return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Database");
+        }
+        plugin.debug("An entry in the embedded storage was created for: %s", name);
+        playerChanged(uuid, lowerName);
+        return CoinsResponse.SUCCESS;
+    }
+
+    @Override
+    public CoinsResponse updatePlayer(@Nonnull UUID uuid, @Nonnull String name) {
+        String lowerName = name.toLowerCase();
+        AtomicBoolean changed = new AtomicBoolean();
+        AtomicBoolean found = new AtomicBoolean();
+        boolean written = write(undo -> {
+            EmbeddedPlayer current = players.get(uuid);
+            UUID oldUUID = names.get(lowerName);
+            EmbeddedPlayer old = oldUUID != null ? players.get(oldUUID) : null;
+            if (current == null && old == null) {
+                return null;
+            }
+            found.set(true);
+            List<byte[]> records = new ArrayList<>(2);
+            if (current == null) { // same name with a new uuid, move the data to the new uuid
+                removePlayer(oldUUID, undo);
+                records.add(encodeDelete(oldUUID));
+                current = old;
+                changed.set(true);
+            } else if (!current.getName().equals(lowerName)) {
+                changed.set(true);
+            }
+            EmbeddedPlayer updated = new EmbeddedPlayer(uuid, lowerName, current.getBalance(), System.currentTimeMillis());
+            putPlayer(updated, undo);
+            records.add(encodePlayer(updated));
+            return records.toArray(new byte[0][]);
+        });
+        if (!found.get()) {
+            if (plugin.getBootstrap().isOnline(name) && !CoinsAPI.isindb(name)) {
+                plugin.debug("%s isn't in the database, but is online and a plugin is requesting his balance.", name);
+                return CoinsAPI.createPlayer(name, uuid);
+            }
+            plugin.debug("Tried to update a player that isn't in the database and is offline. UUID: %s, Name: %s", uuid, name);
+            return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, String.format("Tried to update a player that isn't in the database and is offline. UUID: %s, Name: %s", uuid, name));
+        }
+        if (!written) {
+            return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Database");
+        }
+        if (changed.get()) {
+            playerChanged(uuid, lowerName);
+        } else {
+            UUIDUtil.update(uuid, lowerName);
+        }
+        return CoinsResponse.SUCCESS;
+    }
+
+    @Override
+    public UUID getUUID(String name) {
+        return names.get(name.toLowerCase());
+    }
+
+    @Override
+    public String getName(UUID uuid) {
+        EmbeddedPlayer player = players.get(uuid);
+        return player != null ? player.getName() : null;
+    }
+
+    @Override
+    public double getCoins(UUID uuid) {
+        EmbeddedPlayer player = players.get(uuid);
+        if (player != null) {
+            return player.getBalance();
+        }
+        if (plugin.getBootstrap().isOnline(uuid)) {
+            double coins = plugin.getConfig().getStartingCoins();
+            createPlayer(uuid, UUIDUtil.getName(uuid, false).toLowerCase(), coins);
+            return coins;
+        }
+        return -1;
+    }
+
+    @Override
+    public CoinsResponse setCoins(UUID uuid, double balance) {
+        AtomicBoolean found = new AtomicBoolean();
+        boolean written = write(undo -> {
+            EmbeddedPlayer player = players.get(uuid);
+            if (player == null) {
+                return null;
+            }
+            found.set(true);
+            EmbeddedPlayer updated = player.withBalance(balance);
+            putPlayer(updated, undo);
+            return new byte[][]{encodePlayer(updated)};
+        });
+        if (!found.get()) {
+            return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Unknown player", "%target%", uuid.toString());
+        }
+        return written ? CoinsResponse.SUCCESS : new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Database");
+    }
+
+    @Override
+    public boolean isindb(UUID uuid) {
+        return players.containsKey(uuid);
+    }
+
+    @Override
+    public boolean isindb(String name) {
+        return names.containsKey(name.toLowerCase());
+    }
+
+    @Override
+    public LinkedHashSet<CoinsUser> getTopPlayers(int top) {
+        if (top <= 0) {
+            return new LinkedHashSet<>();
+        }
+        PriorityQueue<EmbeddedPlayer> lowest = new PriorityQueue<>(top, Comparator.comparingDouble(EmbeddedPlayer::getBalance));
+        for (EmbeddedPlayer player : players.values()) {
+            if (lowest.size() < top) {
+                lowest.add(player);
+            } else if (player.getBalance() > lowest.peek().getBalance()) {
+                lowest.poll();
+                lowest.add(player);
+            }
+        }
+        List<EmbeddedPlayer> sorted = new ArrayList<>(lowest);
+        sorted.sort(Comparator.comparingDouble(EmbeddedPlayer::getBalance).reversed());
+        return sorted.stream().map(this::toUser).collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    @Override
+    public Multiplier saveMultiplier(Multiplier multiplier) {
+        Multiplier saved = multiplier.toBuilder().setId(nextMultiplierId.getAndIncrement()).build(false);
+        String json = CoinsPlugin.GSON.toJson(saved);
+        if (!write(undo -> {
+            putMultiplier(saved.getId(), json, undo);
+            return new byte[][]{encodeMultiplier(saved.getId(), json)};
+        })) {
+            throw new RuntimeException("It is not possible to save the multiplier: " + multiplier.toString());
+        }
+        return saved;
+    }
+
+    @Override
+    public Multiplier getMultiplier(int id) {
+        String json = multipliers.get(id);
+        return json != null ? Multiplier.fromJson(json) : null;
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliers() {
+        return findMultipliers(multiplier -> true);
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliers(String server) {
+        return findMultipliers(multiplier -> multiplier.getServer() != null && multiplier.getServer().equalsIgnoreCase(server));
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliers(String server, boolean enabled) {
+        return findMultipliers(multiplier -> multiplier.getServer() != null && multiplier.getServer().equalsIgnoreCase(server) && multiplier.isEnabled() == enabled);
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliersFor(UUID uuid) {
+        return findMultipliers(multiplier -> Objects.equals(multiplier.getData().getEnablerUUID(), uuid));
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliersFor(UUID uuid, boolean enabled) {
+        return findMultipliers(multiplier -> Objects.equals(multiplier.getData().getEnablerUUID(), uuid) && multiplier.isEnabled() == enabled);
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliersFor(UUID uuid, String server) {
+        return findMultipliers(multiplier -> Objects.equals(multiplier.getData().getEnablerUUID(), uuid) && multiplier.getServer() != null && multiplier.getServer().equalsIgnoreCase(server));
+    }
+
+    @Override
+    public Collection<Multiplier> getMultipliersFor(UUID uuid, String server, boolean enabled) {
+        return findMultipliers(multiplier -> Objects.equals(multiplier.getData().getEnablerUUID(), uuid) && multiplier.getServer() != null && multiplier.getServer().equalsIgnoreCase(server) && multiplier.isEnabled() == enabled);
+    }
+
+    @Override
+    public void enableMultiplier(Multiplier multiplier) {
+        updateMultiplier(multiplier);
+    }
+
+    @Override
+    public void deleteMultiplier(Multiplier multiplier) {
+        write(undo -> removeMultiplier(multiplier.getId(), undo) ? new byte[][]{encodeDeleteMultiplier(multiplier.getId())} : null);
+    }
+
+    @Override
+    public void updateMultiplier(Multiplier multiplier) {
+        String json = CoinsPlugin.GSON.toJson(multiplier);
+        write(undo -> {
+            if (!multipliers.containsKey(multiplier.getId())) {
+                return null;
+            }
+            putMultiplier(multiplier.getId(), json, undo);
+            return new byte[][]{encodeMultiplier(multiplier.getId(), json)};
+        });
+    }
+
+    @Override
+    @Deprecated
+    public LinkedHashMap<String, Double> getAllPlayers() {
+        LinkedHashMap<String, Double> data = new LinkedHashMap<>();
+        forEachPlayer(user -> data.put(user.getName() + "," + user.getUniqueId(), user.getCoins()));
+        return data;
+    }
+
+    @Override
+    public boolean forEachPlayer(@Nonnull Consumer<CoinsUser> action) {
+        players.values().forEach(player -> action.accept(toUser(player)));
+        return true;
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    public StorageType getStorageType() {
+        return StorageType.EMBEDDED;
+    }
+
+    /**
+     * Apply a change to the data in memory and write it to the log, the change is done while holding a lock so
+     * records are written to the log in the same order that they were applied in memory. The change registers how to
+     * undo every value that it changed, if the records can't be synced to disk the values that weren't changed again
+     * meanwhile are restored, so memory never keeps a change that isn't in the log.
+     *
+     * @param change change to apply, returns the records to write or null if nothing was changed.
+     * @return <i>true</i> if the records were synced to disk or there were no records, <i>false</i> otherwise.
+     */
+    private boolean write(Function<List<Runnable>, byte[][]> change) {
+        EmbeddedLog current = log;
+        if (current == null) {
+            plugin.log("Tried to write to the embedded storage after it was closed.");
+            return false;
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>(2);
+        List<Runnable> undo = new ArrayList<>(2);
+        synchronized (writeLock) {
+            byte[][] records = change.apply(undo);
+            if (records == null) {
+                return true;
+            }
+            for (byte[] record : records) {
+                futures.add(current.append(record));
+            }
+        }
+        compactIfNeeded(current);
+        try {
+            for (CompletableFuture<Void> future : futures) {
+                future.get();
+            }
+            return true;
+        } catch (ExecutionException ex) {
+            plugin.log("An error has occurred writing to the embedded storage, check the logs for more info.");
+            plugin.debug(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writeLock) {
+            for (int i = undo.size() - 1; i >= 0; i--) {
+                undo.get(i).run();
+            }
+        }
+        return false;
+    }
+
+    private void compactIfNeeded(EmbeddedLog current) {
+        if (current.size() < compactSize || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+        current.rotate(generation -> plugin.getBootstrap().runAsync(() -> compact(generation))).whenComplete((result, ex) -> {
+            if (ex != null) {
+                compacting.set(false);
+            }
+        });
+    }
+
+    /**
+     * Write a snapshot of all data written before the given generation of the log and delete older logs and
+     * snapshots. Data changed while the snapshot is written may be included too, which is fine since replaying the log
+     * after the snapshot sets the same values again.
+     *
+     * @param generation first generation of the log that isn't included in the snapshot.
+     */
+    private void compact(long generation) {
+        long start = System.currentTimeMillis();
+        try {
+            EmbeddedSnapshot.write(EmbeddedSnapshot.file(directory, generation), players.values(), multipliers, nextMultiplierId.get());
+            deleteOlderThan(generation);
+            plugin.debug("Embedded storage was compacted in %sms.", System.currentTimeMillis() - start);
+        } catch (IOException ex) {
+            plugin.log("An error has occurred compacting the embedded storage, check the logs for more info.");
+            plugin.debug(ex);
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Load the latest valid snapshot and replay all logs written after it.
+     *
+     * @return generation of the log to continue writing.
+     * @throws IOException if a log can't be read.
+     */
+    private long recover() throws IOException {
+        long base = 0;
+        for (long generation : generations("snapshot-").descendingSet()) {
+            try {
+                int nextId = EmbeddedSnapshot.read(EmbeddedSnapshot.file(directory, generation), this::putPlayer, multipliers::put);
+                nextMultiplierId.set(Math.max(nextId, nextMultiplierId.get()));
+                base = generation;
+                break;
+            } catch (IOException ex) {
+                plugin.log("Can't load the embedded storage snapshot " + generation + ", trying with an older snapshot.");
+                plugin.debug(ex);
+                players.clear();
+                names.clear();
+                multipliers.clear();
+            }
+        }
+        long current = base;
+        long records = 0;
+        for (long generation : generations("log-")) {
+            if (generation < base) {
+                continue;
+            }
+            records += EmbeddedLog.replay(plugin, EmbeddedLog.file(directory, generation), this::applyRecord);
+            current = generation;
+        }
+        deleteOlderThan(base);
+        plugin.log("Loaded " + players.size() + " players from the embedded storage, " + records + " changes were replayed from the log.");
+        return current;
+    }
+
+    private TreeSet<Long> generations(String prefix) {
+        TreeSet<Long> generations = new TreeSet<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(".dat"));
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    generations.add(Long.parseLong(file.getName().substring(prefix.length(), file.getName().length() - 4)));
+                } catch (NumberFormatException ignore) {
+                }
+            }
+        }
+        return generations;
+    }
+
+    private void deleteOlderThan(long generation) {
+        for (long old : generations("log-").headSet(generation)) {
+            if (!EmbeddedLog.file(directory, old).delete()) {
+                plugin.debug("Can't delete old embedded storage log %s", old);
+            }
+        }
+        for (long old : generations("snapshot-").headSet(generation)) {
+            if (!EmbeddedSnapshot.file(directory, old).delete()) {
+                plugin.debug("Can't delete old embedded storage snapshot %s", old);
+            }
+        }
+    }
+
+    private void applyRecord(DataInputStream in) {
+        try {
+            switch (in.readByte()) {
+                case PLAYER: {
+                    UUID uuid = new UUID(in.readLong(), in.readLong());
+                    double balance = in.readDouble();
+                    long lastLogin = in.readLong();
+                    putPlayer(new EmbeddedPlayer(uuid, in.readUTF(), balance, lastLogin));
+                }
+                break;
+                case DELETE_PLAYER:
+                    removePlayer(new UUID(in.readLong(), in.readLong()));
+                    break;
+                case MULTIPLIER: {
+                    int id = in.readInt();
+                    multipliers.put(id, in.readUTF());
+                    nextMultiplierId.accumulateAndGet(id + 1, Math::max);
+                }
+                break;
+                case DELETE_MULTIPLIER:
+                    multipliers.remove(in.readInt());
+                    break;
+                default:
+                    throw new IOException("Unknown record type in the embedded storage log");
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void putPlayer(EmbeddedPlayer player) {
+        EmbeddedPlayer old = players.put(player.getUniqueId(), player);
+        if (old != null && !old.getName().equals(player.getName())) {
+            names.remove(old.getName(), old.getUniqueId());
+        }
+        names.put(player.getName(), player.getUniqueId());
+    }
+
+    private void removePlayer(UUID uuid) {
+        EmbeddedPlayer old = players.remove(uuid);
+        if (old != null) {
+            names.remove(old.getName(), uuid);
+        }
+    }
+
+    private void putPlayer(EmbeddedPlayer player, List<Runnable> undo) {
+        EmbeddedPlayer previous = players.get(player.getUniqueId());
+        putPlayer(player);
+        undo.add(() -> restorePlayer(player.getUniqueId(), player, previous));
+    }
+
+    private void removePlayer(UUID uuid, List<Runnable> undo) {
+        EmbeddedPlayer previous = players.get(uuid);
+        removePlayer(uuid);
+        undo.add(() -> restorePlayer(uuid, null, previous));
+    }
+
+    private void restorePlayer(UUID uuid, EmbeddedPlayer expected, EmbeddedPlayer previous) {
+        if (players.get(uuid) != expected) { // changed again by a later write
+            return;
+        }
+        if (previous != null) {
+            putPlayer(previous);
+        } else {
+            removePlayer(uuid);
+        }
+    }
+
+    private void putMultiplier(int id, String json, List<Runnable> undo) {
+        String previous = multipliers.put(id, json);
+        undo.add(() -> restoreMultiplier(id, json, previous));
+    }
+
+    private boolean removeMultiplier(int id, List<Runnable> undo) {
+        String previous = multipliers.remove(id);
+        if (previous == null) {
+            return false;
+        }
+        undo.add(() -> restoreMultiplier(id, null, previous));
+        return true;
+    }
+
+    private void restoreMultiplier(int id, String expected, String previous) {
+        if (multipliers.get(id) != expected) { // changed again by a later write
+            return;
+        }
+        if (previous != null) {
+            multipliers.put(id, previous);
+        } else {
+            multipliers.remove(id);
+        }
+    }
+
+    private void playerChanged(UUID uuid, String name) {
+        UUIDUtil.update(uuid, name);
+        CoinsAPI.getExistenceCache().addPlayer(uuid, name);
+        plugin.getMessagingService().publishUserCreated(uuid, name);
+    }
+
+    private Collection<Multiplier> findMultipliers(Predicate<Multiplier> filter) {
+        return multipliers.values().stream().map(Multiplier::fromJson).filter(Objects::nonNull).filter(filter).collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    private CoinsUser toUser(EmbeddedPlayer player) {
+        return new CoinsUser(player.getUniqueId(), player.getName(), player.getBalance());
+    }
+
+    private static byte[] encodePlayer(EmbeddedPlayer player) {
+        return encode(out -> {
+            out.writeByte(PLAYER);
+            out.writeLong(player.getUniqueId().getMostSignificantBits());
+            out.writeLong(player.getUniqueId().getLeastSignificantBits());
+            out.writeDouble(player.getBalance());
+            out.writeLong(player.getLastLogin());
+            out.writeUTF(player.getName());
+        });
+    }
+
+    private static byte[] encodeDelete(UUID uuid) {
+        return encode(out -> {
+            out.writeByte(DELETE_PLAYER);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        });
+    }
+
+    private static byte[] encodeMultiplier(int id, String json) {
+        return encode(out -> {
+            out.writeByte(MULTIPLIER);
+            out.writeInt(id);
+            out.writeUTF(json);
+        });
+    }
+
+    private static byte[] encodeDeleteMultiplier(int id) {
+        return encode(out -> {
+            out.writeByte(DELETE_MULTIPLIER);
+            out.writeInt(id);
+        });
+    }
+
+    private static byte[] encode(RecordWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException ex) { // can't happen writing to memory
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+
+        void write(DataOutputStream out) throws IOException;
+    }
+}
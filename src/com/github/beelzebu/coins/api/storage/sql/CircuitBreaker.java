@@ -0,0 +1,114 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.storage.sql;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Circuit breaker for the connections to the database. After some consecutive failures the circuit is opened and
+ * all calls fail fast without waiting for the connection timeout, after a backoff only one call is allowed to try
+ * again, if it fails the backoff is doubled up to a max, and if it succeeds the circuit is closed again.
+ *
+ * @author Beelzebu
+ */
+final class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile int failures = 0;
+    private long backoffMillis;
+    private long retryAt = 0;
+
+    CircuitBreaker(int failureThreshold, long minBackoffMillis, long maxBackoffMillis) {
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.minBackoffMillis = Math.max(minBackoffMillis, 1);
+        this.maxBackoffMillis = Math.max(maxBackoffMillis, this.minBackoffMillis);
+        backoffMillis = this.minBackoffMillis;
+    }
+
+    /**
+     * Check if a call is allowed, when the circuit is open only one call is allowed after the backoff, and that call
+     * must report its result with {@link #onSuccess()} or {@link #onFailure()}.
+     *
+     * @return <i>true</i> if the call is allowed, <i>false</i> if it must fail fast.
+     */
+    boolean tryAcquire() {
+        if (failures < failureThreshold) {
+            return true;
+        }
+        synchronized (this) {
+            if (System.currentTimeMillis() < retryAt) {
+                return false;
+            }
+        }
+        return probing.compareAndSet(false, true);
+    }
+
+    /**
+     * Report a successful call.
+     *
+     * @return <i>true</i> if this call closed the circuit.
+     */
+    boolean onSuccess() {
+        if (failures == 0) {
+            return false;
+        }
+        synchronized (this) {
+            boolean wasOpen = failures >= failureThreshold;
+            failures = 0;
+            backoffMillis = minBackoffMillis;
+            probing.set(false);
+            return wasOpen;
+        }
+    }
+
+    /**
+     * Report a failed call.
+     */
+    synchronized void onFailure() {
+        failures = Math.min(failures + 1, failureThreshold);
+        if (failures >= failureThreshold) {
+            // add some jitter so servers sharing the database don't retry at the same time
+            retryAt = System.currentTimeMillis() + backoffMillis + ThreadLocalRandom.current().nextLong(backoffMillis / 4 + 1);
+            backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+        }
+        probing.set(false);
+    }
+
+    /**
+     * Check if the circuit is open.
+     *
+     * @return <i>true</i> if calls are failing fast.
+     */
+    boolean isOpen() {
+        return failures >= failureThreshold;
+    }
+
+    /**
+     * Get the time until the next call is allowed.
+     *
+     * @return milliseconds until next retry, 0 if the circuit is closed.
+     */
+    synchronized long getRetryDelay() {
+        return isOpen() ? Math.max(retryAt - System.currentTimeMillis(), 0) : 0;
+    }
+}
@@ -21,11 +21,12 @@ package com.github.beelzebu.coins.api.storage.sql;
 import com.github.beelzebu.coins.api.CoinsAPI;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
 /**
@@ -45,34 +46,14 @@ public class DatabaseUtils {
             ps = c.prepareStatement(query.getQuery(), autogeneratedKeys);
         }
         try {
-            if (ps != null && parameters.length > 0) {
-                for (int i = 1; i <= parameters.length; i++) {
-                    Object parameter = parameters[i - 1];
-                    if (parameter == null) {
-                        ps.setObject(i, null);
-                    } else if (parameter instanceof String) {
-                        ps.setString(i, parameter.toString().toLowerCase());
-                    } else if (parameter instanceof UUID) {
-                        ps.setString(i, parameter.toString());
-                    } else if (parameter instanceof Integer) {
-                        ps.setInt(i, (int) parameter);
-                    } else if (parameter instanceof Long) {
-                        ps.setLong(i, (long) parameter);
-                    } else if (parameter instanceof Double) {
-                        ps.setDouble(i, (double) parameter);
-                    } else if (parameter instanceof Boolean) {
-                        ps.setBoolean(i, (boolean) parameter);
-                    } else {
-                        ps.setString(i, parameter.toString());
-                    }
-                }
-            }
+            query.bind(ps, parameters);
             return ps;
         } catch (SQLException ex) {
+            ps.close();
             CoinsAPI.getPlugin().log("An internal error has occurred while trying to execute a query in the storageProvider, check the logs to get more information.");
-            CoinsAPI.getPlugin().debug("The error code is: '" + ex.getErrorCode() + "'");
-            CoinsAPI.getPlugin().debug("The error message is: '" + ex.getMessage() + "'");
-            CoinsAPI.getPlugin().debug("Query: " + String.format(query.getQuery().replace("?", "%s"), parameters));
+            CoinsAPI.getPlugin().debug("The error code is: '%s'", ex.getErrorCode());
+            CoinsAPI.getPlugin().debug("The error message is: '%s'", ex.getMessage());
+            CoinsAPI.getPlugin().debug(() -> "Query: " + query.getQuery() + " Parameters: " + Arrays.toString(parameters));
             throw new SQLException("Failed to prepare a statement", ex);
         }
     }
@@ -80,4 +61,28 @@ public class DatabaseUtils {
     public static PreparedStatement prepareStatement(Connection c, SQLQuery query, Object... parameters) throws SQLException {
         return prepareStatement(-1, c, query, parameters);
     }
+
+    /**
+     * Prepare a forward only, read only statement that fetches rows in batches of the given size, so big results can
+     * be iterated without loading them in memory.
+     *
+     * @param c          connection to use.
+     * @param query      query to prepare.
+     * @param fetchSize  amount of rows to fetch from the database at once.
+     * @param parameters parameters for the query.
+     * @return prepared statement.
+     * @throws SQLException if the statement can't be prepared.
+     */
+    public static PreparedStatement prepareCursor(Connection c, SQLQuery query, int fetchSize, Object... parameters) throws SQLException {
+        PreparedStatement ps = c.prepareStatement(query.getQuery(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            ps.setFetchSize(fetchSize);
+            query.bind(ps, parameters);
+            return ps;
+        } catch (SQLException ex) {
+            ps.close();
+            CoinsAPI.getPlugin().debug(() -> "Query: " + query.getQuery() + " Parameters: " + Arrays.toString(parameters));
+            throw new SQLException("Failed to prepare a cursor", ex);
+        }
+    }
 }
@@ -0,0 +1,256 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.storage.sql;
+
+import com.github.beelzebu.coins.api.CoinsAPI;
+import com.github.beelzebu.coins.api.plugin.CoinsBootstrap;
+import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Migrates players from the database used by old versions of the plugin. Rows are read from the old database and
+ * inserted in the current database with JDBC batches, every batch is committed in his own transaction. Rows whose UUID
+ * already exists in the current database are skipped, so a migration that was interrupted can be started again and it
+ * will only insert the rows that weren't committed, no matter the order in which the old database returns them.
+ * Reading and writing may run in different threads, so the old database is read while the previous batch is written.
+ *
+ * @author Beelzebu
+ */
+final class LegacyMigration {
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int PROGRESS_BATCHES = 10;
+    private static final int QUEUED_BATCHES = 4;
+    private static final int UUIDS_PER_SELECT = 500; // keep it under the default limit of parameters in SQLite
+    private static final List<LegacyRow> END = Collections.emptyList();
+    private final CoinsPlugin<? extends CoinsBootstrap> plugin;
+    private final int batchSize;
+    private final boolean parallel;
+    private long baseline;
+    private long inserted = 0;
+    private long skipped = 0;
+    private long batches = 0;
+    private long start;
+    private volatile Exception writerError;
+
+    LegacyMigration(CoinsPlugin<? extends CoinsBootstrap> plugin) {
+        this.plugin = plugin;
+        batchSize = Math.max(plugin.getConfig().getInt("Migration.Batch Size", DEFAULT_BATCH_SIZE), 1);
+        parallel = plugin.getConfig().getBoolean("Migration.Parallel", true);
+    }
+
+    /**
+     * Migrate all rows from the old database.
+     *
+     * @param connection connection to the current database.
+     * @param old        rows from the old database, with the columns uuid, nick, balance and lastlogin.
+     * @return amount of rows inserted in this run.
+     * @throws SQLException if there is an error reading or writing rows, rows committed before the error are kept
+     *                      and the next migration will skip them.
+     */
+    long migrate(Connection connection, ResultSet old) throws SQLException {
+        baseline = countUsers(connection);
+        start = System.currentTimeMillis();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement ps = connection.prepareStatement(SQLQuery.CREATE_USER.getQuery())) {
+            if (parallel) {
+                migrateParallel(connection, ps, old);
+            } else {
+                List<LegacyRow> batch;
+                while (!(batch = readBatch(old)).isEmpty()) {
+                    writeBatch(connection, ps, batch);
+                }
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        verify(connection);
+        return inserted;
+    }
+
+    private void migrateParallel(Connection connection, PreparedStatement ps, ResultSet old) throws SQLException {
+        BlockingQueue<List<LegacyRow>> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+        Thread writer = new Thread(() -> {
+            try {
+                List<LegacyRow> batch;
+                while ((batch = queue.take()) != END) {
+                    writeBatch(connection, ps, batch);
+                }
+            } catch (Exception ex) {
+                writerError = ex;
+            }
+        }, "Coins Migration Writer");
+        writer.setDaemon(true);
+        writer.start();
+        try {
+            List<LegacyRow> batch;
+            do {
+                batch = readBatch(old);
+            } while (!batch.isEmpty() && offer(queue, batch, writer));
+            offer(queue, END, writer);
+            writer.join();
+        } catch (InterruptedException ex) {
+            writer.interrupt();
+            Thread.currentThread().interrupt();
+            throw new SQLException("Migration was interrupted", ex);
+        }
+        if (writerError instanceof SQLException) {
+            throw (SQLException) writerError;
+        } else if (writerError != null) {
+            throw new SQLException("Migration writer failed", writerError);
+        }
+    }
+
+    private boolean offer(BlockingQueue<List<LegacyRow>> queue, List<LegacyRow> batch, Thread writer) throws InterruptedException {
+        while (writer.isAlive()) {
+            if (queue.offer(batch, 1, TimeUnit.SECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<LegacyRow> readBatch(ResultSet old) throws SQLException {
+        List<LegacyRow> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize && old.next()) {
+            batch.add(new LegacyRow(old.getString("uuid"), old.getString("nick"), old.getDouble("balance"), old.getLong("lastlogin")));
+        }
+        return batch.isEmpty() ? END : batch;
+    }
+
+    private void writeBatch(Connection connection, PreparedStatement ps, List<LegacyRow> batch) throws SQLException {
+        List<LegacyRow> missing;
+        try {
+            missing = filterExisting(connection, batch);
+            for (LegacyRow row : missing) {
+                SQLQuery.CREATE_USER.bind(ps, row.uuid, row.name, row.balance, row.lastLogin);
+                ps.addBatch();
+            }
+            if (!missing.isEmpty()) {
+                ps.executeBatch();
+            }
+            connection.commit();
+        } catch (SQLException ex) {
+            connection.rollback();
+            throw ex;
+        }
+        for (LegacyRow row : missing) {
+            try {
+                CoinsAPI.getExistenceCache().addPlayer(UUID.fromString(row.uuid), row.name);
+            } catch (IllegalArgumentException ignore) { // invalid uuid in the old database, the name is still known
+                CoinsAPI.getExistenceCache().addPlayer(null, row.name);
+            }
+        }
+        inserted += missing.size();
+        skipped += batch.size() - missing.size();
+        if (++batches % PROGRESS_BATCHES == 0) {
+            long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+            plugin.log("Migrated " + inserted + " rows from the old database (" + ((inserted + skipped) * 1000 / elapsed) + " rows/s).");
+        }
+    }
+
+    /**
+     * Remove from a batch the rows whose UUID is already in the current database or repeated in the same batch.
+     *
+     * @param connection connection to the current database, in the transaction of the batch.
+     * @param batch      rows read from the old database.
+     * @return rows that must be inserted.
+     * @throws SQLException if the current database can't be read.
+     */
+    private List<LegacyRow> filterExisting(Connection connection, List<LegacyRow> batch) throws SQLException {
+        List<String> uuids = new ArrayList<>(batch.size());
+        for (LegacyRow row : batch) {
+            if (row.uuid != null) {
+                uuids.add(row.uuid.toLowerCase());
+            }
+        }
+        Set<String> existing = new HashSet<>();
+        for (int from = 0; from < uuids.size(); from += UUIDS_PER_SELECT) {
+            List<String> chunk = uuids.subList(from, Math.min(from + UUIDS_PER_SELECT, uuids.size()));
+            StringBuilder query = new StringBuilder("SELECT uuid FROM `").append(SQLDatabase.DATA_TABLE).append("` WHERE uuid IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                query.append(i == 0 ? "?" : ", ?");
+            }
+            query.append(");");
+            try (PreparedStatement ps = connection.prepareStatement(query.toString())) {
+                int index = 1;
+                for (String uuid : chunk) {
+                    ParameterType.UUID.bind(ps, index++, uuid);
+                }
+                try (ResultSet res = ps.executeQuery()) {
+                    while (res.next()) {
+                        existing.add(res.getString("uuid").toLowerCase());
+                    }
+                }
+            }
+        }
+        List<LegacyRow> missing = new ArrayList<>(batch.size());
+        for (LegacyRow row : batch) {
+            if (row.uuid == null || existing.add(row.uuid.toLowerCase())) {
+                missing.add(row);
+            }
+        }
+        return missing;
+    }
+
+    private void verify(Connection connection) throws SQLException {
+        long expected = baseline + inserted;
+        long actual = countUsers(connection);
+        long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+        if (actual == expected) {
+            plugin.log("Migrated " + inserted + " rows from the old database in " + elapsed + "ms (" + ((inserted + skipped) * 1000 / elapsed) + " rows/s), " + skipped + " rows were already migrated.");
+        } else {
+            plugin.log("Migration finished but the database has " + actual + " users and " + expected + " were expected, check if other server was writing to the database during the migration.");
+        }
+    }
+
+    private long countUsers(Connection connection) throws SQLException {
+        try (PreparedStatement ps = DatabaseUtils.prepareStatement(connection, SQLQuery.COUNT_USERS); ResultSet res = ps.executeQuery()) {
+            return res.next() ? res.getLong(1) : 0;
+        }
+    }
+
+    private static final class LegacyRow {
+
+        private final String uuid;
+        private final String name;
+        private final double balance;
+        private final long lastLogin;
+
+        private LegacyRow(String uuid, String name, double balance, long lastLogin) {
+            this.uuid = uuid;
+            this.name = name;
+            this.balance = balance;
+            this.lastLogin = lastLogin;
+        }
+    }
+}
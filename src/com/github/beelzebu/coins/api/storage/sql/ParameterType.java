@@ -0,0 +1,113 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.storage.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.UUID;
+
+/**
+ * JDBC type of a parameter in a {@link SQLQuery}, each type knows how to bind a value to a statement so we don't need
+ * to check the class of every value when a statement is prepared.
+ *
+ * @author Beelzebu
+ */
+public enum ParameterType {
+
+    /**
+     * String stored in lowercase, like player names and server names.
+     */
+    LOWERCASE_STRING(Types.VARCHAR) {
+        @Override
+        void bindValue(PreparedStatement ps, int index, Object value) throws SQLException {
+            ps.setString(index, value.toString().toLowerCase());
+        }
+    },
+    /**
+     * String stored as it is, enums are stored by their name.
+     */
+    STRING(Types.VARCHAR) {
+        @Override
+        void bindValue(PreparedStatement ps, int index, Object value) throws SQLException {
+            ps.setString(index, value.toString());
+        }
+    },
+    /**
+     * UUID stored as a string, it may be an {@link UUID} or a string read from other database.
+     */
+    UUID(Types.VARCHAR) {
+        @Override
+        void bindValue(PreparedStatement ps, int index, Object value) throws SQLException {
+            ps.setString(index, value instanceof UUID ? value.toString() : value.toString().toLowerCase());
+        }
+    },
+    INT(Types.INTEGER) {
+        @Override
+        void bindValue(PreparedStatement ps, int index, Object value) throws SQLException {
+            ps.setInt(index, ((Number) value).intValue());
+        }
+    },
+    LONG(Types.BIGINT) {
+        @Override
+        void bindValue(PreparedStatement ps, int index, Object value) throws SQLException {
+            ps.setLong(index, ((Number) value).longValue());
+        }
+    },
+    DOUBLE(Types.DOUBLE) {
+        @Override
+        void bindValue(PreparedStatement ps, int index, Object value) throws SQLException {
+            ps.setDouble(index, ((Number) value).doubleValue());
+        }
+    },
+    BOOLEAN(Types.BOOLEAN) {
+        @Override
+        void bindValue(PreparedStatement ps, int index, Object value) throws SQLException {
+            ps.setBoolean(index, (Boolean) value);
+        }
+    };
+
+    private final int sqlType;
+
+    ParameterType(int sqlType) {
+        this.sqlType = sqlType;
+    }
+
+    /**
+     * Bind a value to the statement using this type.
+     *
+     * @param ps    statement to bind the value.
+     * @param index index of the parameter, starting from 1.
+     * @param value value to bind, may be null.
+     * @throws SQLException if the value can't be bound or isn't compatible with this type.
+     */
+    void bind(PreparedStatement ps, int index, Object value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, sqlType);
+            return;
+        }
+        try {
+            bindValue(ps, index, value);
+        } catch (ClassCastException ex) {
+            throw new SQLException("Parameter " + index + " must be " + this + " but was " + value.getClass().getName(), ex);
+        }
+    }
+
+    abstract void bindValue(PreparedStatement ps, int index, Object value) throws SQLException;
+}
@@ -21,6 +21,7 @@ package com.github.beelzebu.coins.api.storage.sql;
 import com.github.beelzebu.coins.api.CoinsAPI;
 import com.github.beelzebu.coins.api.CoinsResponse;
 import com.github.beelzebu.coins.api.CoinsUser;
+import com.github.beelzebu.coins.api.LedgerEntry;
 import com.github.beelzebu.coins.api.Multiplier;
 import com.github.beelzebu.coins.api.MultiplierData;
 import com.github.beelzebu.coins.api.MultiplierType;
@@ -28,19 +29,45 @@ import com.github.beelzebu.coins.api.plugin.CoinsBootstrap;
 import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
 import com.github.beelzebu.coins.api.storage.StorageProvider;
 import com.github.beelzebu.coins.api.storage.StorageType;
+import com.github.beelzebu.coins.api.utils.UUIDUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import javax.annotation.Nonnull;
 
 /**
@@ -52,39 +79,145 @@ public abstract class SQLDatabase implements StorageProvider {
     protected final String prefix;
     public static String DATA_TABLE;
     public static String MULTIPLIERS_TABLE;
+    public static String LEASES_TABLE;
+    public static String LEDGER_TABLE;
+    private static final String GLOBAL_LEASE_SLOT = "*";
+    private static final int NAMES_BATCH_SIZE = 100;
+    private static final int LEDGER_ROWS_PER_INSERT = 100;
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+    private static final int DEFAULT_PURGE_CHUNK_SIZE = 500;
+    private static final int DEFAULT_PURGE_PAUSE_MILLIS = 250;
+    private static final int PURGE_PROGRESS_CHUNKS = 20;
+    private static final int DEFAULT_REPLICA_LAG_MILLIS = 5000;
+    private static final int DEFAULT_CIRCUIT_FAILURES = 3;
+    private static final int DEFAULT_CIRCUIT_MIN_BACKOFF_MILLIS = 1000;
+    private static final int DEFAULT_CIRCUIT_MAX_BACKOFF_MILLIS = 60000;
+    private static final int DEFAULT_MAX_QUEUED_WRITES = 10000;
+    private static final String QUEUED_WRITES_FILE = "queued-balances.properties";
+    private static final int DEFAULT_SQLITE_READ_POOL_SIZE = 4;
     protected HikariDataSource ds;
+    protected HikariDataSource readDs;
+    private volatile SQLiteWriter sqliteWriter = null;
+    private final ThreadLocal<UnitOfWork> unitOfWork = new ThreadLocal<>();
+    private volatile boolean leasesTableCreated = false;
+    private volatile boolean ledgerTableCreated = false;
+    private volatile Boolean upsertSupported = null;
+    private volatile boolean returningSupported = true;
+    private final Cache<UUID, Boolean> recentWrites;
+    private final long replicaLagMillis;
+    private volatile long lastMultiplierWrite = 0;
+    private final CircuitBreaker circuitBreaker;
+    private final ReentrantLock reconnectLock = new ReentrantLock();
+    private final Map<UUID, Double> queuedWrites = new ConcurrentHashMap<>();
+    private final int maxQueuedWrites;
+    private final AtomicBoolean flushingWrites = new AtomicBoolean();
+    private final File queuedWritesFile;
 
     public SQLDatabase(CoinsPlugin<? extends CoinsBootstrap> plugin) {
         this.plugin = plugin;
         prefix = getStorageType().equals(StorageType.SQLITE) ? "" : plugin.getConfig().getString("MySQL.Prefix");
         DATA_TABLE = prefix + plugin.getConfig().getString("MySQL.Data Table", "data");
         MULTIPLIERS_TABLE = prefix + plugin.getConfig().getString("MySQL.Multipliers Table", "multipliers");
+        LEASES_TABLE = MULTIPLIERS_TABLE + "_leases";
+        LEDGER_TABLE = DATA_TABLE + "_ledger";
+        replicaLagMillis = Math.max(plugin.getConfig().getInt("MySQL.Read Replica.Max Lag Millis", DEFAULT_REPLICA_LAG_MILLIS), 0);
+        recentWrites = CacheBuilder.newBuilder().expireAfterWrite(replicaLagMillis, TimeUnit.MILLISECONDS).build();
+        circuitBreaker = new CircuitBreaker(
+                plugin.getConfig().getInt("MySQL.Circuit Breaker.Failures", DEFAULT_CIRCUIT_FAILURES),
+                plugin.getConfig().getInt("MySQL.Circuit Breaker.Min Backoff Millis", DEFAULT_CIRCUIT_MIN_BACKOFF_MILLIS),
+                plugin.getConfig().getInt("MySQL.Circuit Breaker.Max Backoff Millis", DEFAULT_CIRCUIT_MAX_BACKOFF_MILLIS));
+        maxQueuedWrites = Math.max(plugin.getConfig().getInt("MySQL.Circuit Breaker.Max Queued Writes", DEFAULT_MAX_QUEUED_WRITES), 0);
+        queuedWritesFile = new File(plugin.getBootstrap().getDataFolder(), QUEUED_WRITES_FILE);
+        loadQueuedWrites();
     }
 
     @Override
     public void shutdown() {
+        if (!queuedWrites.isEmpty() && !reconnectLock.isHeldByCurrentThread()) {
+            saveQueuedWrites();
+        }
+        if (sqliteWriter != null) {
+            sqliteWriter.close();
+            sqliteWriter = null;
+        }
+        if (readDs != null && readDs.isRunning()) {
+            readDs.close();
+        }
+        readDs = null;
         if (ds != null && ds.isRunning()) {
             ds.close();
         }
     }
 
+    @Override
+    public <T> T unitOfWork(Supplier<T> work) {
+        if (unitOfWork.get() != null) { // join the unit of work that is already running in this thread
+            return work.get();
+        }
+        UnitOfWork current = new UnitOfWork();
+        unitOfWork.set(current);
+        try {
+            return work.get();
+        } finally {
+            unitOfWork.remove();
+            current.close();
+        }
+    }
+
+    @Override
+    public void releaseUnitOfWork() {
+        UnitOfWork current = unitOfWork.get();
+        if (current != null) {
+            current.release();
+        }
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return ds != null ? ds.getMaximumPoolSize() : StorageProvider.super.getMaxConcurrency();
+    }
+
     @Override
     public final CoinsResponse createPlayer(@Nonnull UUID uuid, @Nonnull String name, double balance) {
-        try (Connection c = getConnection()) {
-            if (_isindb(c, uuid) || _isindb(c, name)) {
-                return updatePlayer(uuid, name);
+        return unitOfWork(() -> {
+            try (Connection c = getConnection()) {
+                if (upsertPlayer(c, uuid, name, balance) >= 0) {
+                    return CoinsResponse.SUCCESS;
+                }
+                if (_isindb(c, uuid) || _isindb(c, name)) {
+                    return updatePlayer(uuid, name);
+                }
+                markWritten(uuid);
+                plugin.debug("Creating data for player: %s in the database.", name);
+                executeUpdate(c, SQLQuery.CREATE_USER, uuid, name, balance, System.currentTimeMillis());
+                plugin.debug("An entry in the database was created for: %s", name);
+                UUIDUtil.update(uuid, name);
+                CoinsAPI.getExistenceCache().addPlayer(uuid, name);
+                plugin.getMessagingService().publishUserCreated(uuid, name);
+            } catch (SQLException ex) {
+                plugin.log("An internal error has occurred while creating the player " + name + " in the database, check the logs for more info.");
+                plugin.debug(ex);
+                return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Database");
             }
-            try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.CREATE_USER, uuid, name, balance, System.currentTimeMillis())) {
-                plugin.debug("Creating data for player: " + name + " in the database.");
-                ps.executeUpdate();
-                plugin.debug("An entry in the database was created for: " + name);
+            return CoinsResponse.SUCCESS;
+        });
+    }
+
+    @Override
+    public double loginPlayer(@Nonnull UUID uuid, @Nonnull String name, double balance) {
+        return unitOfWork(() -> {
+            try (Connection c = getConnection()) {
+                double coins = upsertPlayer(c, uuid, name, balance);
+                if (coins >= 0) {
+                    return coins;
+                }
+            } catch (SQLException ex) {
+                plugin.log("An internal error has occurred while loading the player " + name + " from the database, check the logs for more info.");
+                plugin.debug(ex);
+                return -1D;
             }
-        } catch (SQLException ex) {
-            plugin.log("An internal error has occurred while creating the player " + name + " in the database, check the logs for more info.");
-            plugin.debug(ex);
-            return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Database");
-        }
-        return CoinsResponse.SUCCESS;
+            return StorageProvider.super.loginPlayer(uuid, name, balance);
+        });
     }
 
     @Override
@@ -92,27 +225,29 @@ public abstract class SQLDatabase implements StorageProvider {
         name = name.toLowerCase();
         try (Connection c = getConnection()) {
             if (CoinsAPI.getPlugin().getCache().getCoins(uuid).isPresent() || _isindb(c, uuid) || _isindb(c, name)) {
+                markWritten(uuid);
                 String oldName = getName(c, uuid);
                 if (!Objects.equals(oldName, name)) {
-                    try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.UPDATE_USER_NAME_LOGIN, name, System.currentTimeMillis(), uuid)) {
-                        ps.executeUpdate();
-                        plugin.debug("Updated the name for '" + uuid + "' (" + name + ")");
-                        plugin.debug(String.format("Old name: %s, new name %s", oldName, name));
-                    }
+                    executeUpdate(c, SQLQuery.UPDATE_USER_NAME_LOGIN, name, System.currentTimeMillis(), uuid);
+                    plugin.debug("Updated the name for '%s' (%s)", uuid, name);
+                    plugin.debug("Old name: %s, new name %s", oldName, name);
+                    CoinsAPI.getExistenceCache().addPlayer(uuid, name);
+                    plugin.getMessagingService().publishUserCreated(uuid, name);
                 }
+                UUIDUtil.update(uuid, name);
                 UUID oldUUID = getUUID(c, name);
                 if (!Objects.equals(oldUUID, uuid)) {
-                    try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.UPDATE_USER_UUID_LOGIN, uuid, System.currentTimeMillis(), name)) {
-                        ps.executeUpdate();
-                        plugin.debug("Updated the UUID for '" + name + "' (" + uuid + ")");
-                        plugin.debug(String.format("Old UUID: %s, new UUID %s", oldUUID, uuid));
-                    }
+                    executeUpdate(c, SQLQuery.UPDATE_USER_UUID_LOGIN, uuid, System.currentTimeMillis(), name);
+                    plugin.debug("Updated the UUID for '%s' (%s)", name, uuid);
+                    plugin.debug("Old UUID: %s, new UUID %s", oldUUID, uuid);
+                    CoinsAPI.getExistenceCache().addPlayer(uuid, name);
+                    plugin.getMessagingService().publishUserCreated(uuid, name);
                 }
             } else if (plugin.getBootstrap().isOnline(name) && !CoinsAPI.isindb(name)) {
-                plugin.debug(name + " isn't in the database, but is online and a plugin is requesting his balance.");
+                plugin.debug("%s isn't in the database, but is online and a plugin is requesting his balance.", name);
                 return CoinsAPI.createPlayer(name, uuid);
             } else {
-                plugin.debug(String.format("Tried to update a player that isn't in the database and is offline. UUID: %s, Name: %s", uuid, name));
+                plugin.debug("Tried to update a player that isn't in the database and is offline. UUID: %s, Name: %s", uuid, name);
                 return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, String.format("Tried to update a player that isn't in the database and is offline. UUID: %s, Name: %s", uuid, name));
             }
         } catch (SQLException ex) {
@@ -125,7 +260,7 @@ public abstract class SQLDatabase implements StorageProvider {
 
     @Override
     public UUID getUUID(String name) {
-        try (Connection c = getConnection()) {
+        try (Connection c = getReadConnection(null)) {
             return getUUID(c, name);
         } catch (SQLException ex) {
             plugin.log("Something was wrong getting the uuid for the name '" + name + "'");
@@ -136,7 +271,7 @@ public abstract class SQLDatabase implements StorageProvider {
 
     @Override
     public String getName(UUID uuid) {
-        try (Connection c = getConnection()) {
+        try (Connection c = getReadConnection(null)) {
             return getName(c, uuid);
         } catch (SQLException ex) {
             plugin.log("Something was wrong getting the name for the uuid '" + uuid + "'");
@@ -145,15 +280,53 @@ public abstract class SQLDatabase implements StorageProvider {
         return null;
     }
 
+    @Override
+    public Map<UUID, String> getNames(@Nonnull Collection<UUID> uuids) {
+        Map<UUID, String> names = new HashMap<>(uuids.size());
+        List<UUID> pending = new ArrayList<>(uuids);
+        try (Connection c = getReadConnection(null)) {
+            for (int from = 0; from < pending.size(); from += NAMES_BATCH_SIZE) {
+                List<UUID> batch = pending.subList(from, Math.min(from + NAMES_BATCH_SIZE, pending.size()));
+                StringBuilder query = new StringBuilder("SELECT uuid,name FROM `").append(DATA_TABLE).append("` WHERE uuid IN (");
+                for (int i = 0; i < batch.size(); i++) {
+                    query.append(i == 0 ? "?" : ",?");
+                }
+                query.append(");");
+                try (PreparedStatement ps = c.prepareStatement(query.toString())) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        ParameterType.UUID.bind(ps, i + 1, batch.get(i));
+                    }
+                    try (ResultSet res = ps.executeQuery()) {
+                        while (res.next()) {
+                            names.put(UUID.fromString(res.getString("uuid")), res.getString("name"));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            plugin.log("Something was wrong getting the names for " + uuids.size() + " players");
+            plugin.debug(ex);
+        }
+        return names;
+    }
+
+    /**
+     * Get the balance of a player from the primary database, never from the read replica, because the balance is used
+     * to calculate new balances and the replica may not have changes made by other servers yet.
+     */
     @Override
     public final double getCoins(UUID uuid) {
+        Double queued = queuedWrites.get(uuid);
+        if (queued != null) { // the database doesn't have this balance yet
+            return queued;
+        }
         double coins = -1;
         try (Connection c = getConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_BALANCE, uuid); ResultSet res = ps.executeQuery()) {
             if (res.next()) {
                 coins = res.getDouble("balance");
             } else if (plugin.getBootstrap().isOnline(uuid)) {
-                coins = plugin.getConfig().getDouble("General.Starting Coins", 0);
-                createPlayer(uuid, plugin.getName(uuid, false).toLowerCase(), coins);
+                coins = plugin.getConfig().getStartingCoins();
+                createPlayer(uuid, UUIDUtil.getName(uuid, false).toLowerCase(), coins);
             }
         } catch (SQLException ex) {
             plugin.log("An internal error has occurred creating the data for player: " + uuid);
@@ -164,15 +337,22 @@ public abstract class SQLDatabase implements StorageProvider {
 
     @Override
     public final CoinsResponse setCoins(UUID uuid, double amount) {
+        if (circuitBreaker.isOpen()) {
+            return queueWrite(uuid, amount);
+        }
         CoinsResponse response;
         try (Connection c = getConnection()) {
             if (CoinsAPI.getCoins(uuid) > -1 || CoinsAPI.isindb(uuid)) {
-                DatabaseUtils.prepareStatement(c, SQLQuery.UPDATE_COINS, amount, uuid).executeUpdate();
+                markWritten(uuid);
+                executeUpdate(c, SQLQuery.UPDATE_COINS, amount, uuid);
                 response = CoinsResponse.SUCCESS;
             } else {
                 response = new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Unknown player", "%target%", uuid.toString());
             }
         } catch (SQLException ex) {
+            if (circuitBreaker.isOpen()) {
+                return queueWrite(uuid, amount);
+            }
             response = new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Database");
             plugin.log("An internal error has occurred setting coins to the player: " + uuid);
             plugin.debug(ex);
@@ -182,7 +362,7 @@ public abstract class SQLDatabase implements StorageProvider {
 
     @Override
     public final boolean isindb(UUID uuid) {
-        try (Connection c = getConnection()) {
+        try (Connection c = getReadConnection(uuid)) {
             return _isindb(c, uuid);
         } catch (SQLException ex) {
             plugin.log("An internal error has occurred cheking if the player: " + uuid + " exists in the database.");
@@ -193,7 +373,7 @@ public abstract class SQLDatabase implements StorageProvider {
 
     @Override
     public final boolean isindb(String name) {
-        try (Connection c = getConnection()) {
+        try (Connection c = getReadConnection(null)) {
             return _isindb(c, name);
         } catch (SQLException ex) {
             plugin.log("An internal error has occurred cheking if the player: " + name + " exists in the database.");
@@ -205,7 +385,7 @@ public abstract class SQLDatabase implements StorageProvider {
     @Override
     public LinkedHashSet<CoinsUser> getTopPlayers(int top) {
         LinkedHashSet<CoinsUser> topplayers = new LinkedHashSet<>();
-        try (Connection c = getConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_TOP, top); ResultSet res = ps.executeQuery()) {
+        try (Connection c = getReadConnection(null); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_TOP, top); ResultSet res = ps.executeQuery()) {
             while (res.next()) {
                 UUID uuid = UUID.fromString(res.getString("uuid"));
                 String name = res.getString("name");
@@ -222,24 +402,27 @@ public abstract class SQLDatabase implements StorageProvider {
     @Override
     public Multiplier saveMultiplier(Multiplier multiplier) {
         // (id) server type amount minutes start enabled queue data_id(uuid)
+        lastMultiplierWrite = System.currentTimeMillis();
         try (Connection c = getConnection();
              PreparedStatement ps = DatabaseUtils.prepareStatement(Statement.RETURN_GENERATED_KEYS, c, SQLQuery.CREATE_MULTIPLIER,
                      multiplier.getServer(),
-                     multiplier.getData().getEnablerUUID(),
                      multiplier.getData().getType(),
                      multiplier.getData().getAmount(),
                      multiplier.getData().getMinutes(),
-                     multiplier.isEnabled(),
-                     multiplier.isQueue());
-             ResultSet res = ps.getGeneratedKeys()) {
-            if (res.next()) {
-                return multiplier.toBuilder().setId(res.getInt(1)).build(false);
-            } else {
-                plugin.log("Can't set id for multiplier: " + multiplier.toString());
+                     multiplier.getStart(),
+                     multiplier.getQueueStart(),
+                     multiplier.getData().getEnablerUUID())) {
+            ps.executeUpdate();
+            try (ResultSet res = ps.getGeneratedKeys()) {
+                if (res.next()) {
+                    return multiplier.toBuilder().setId(res.getInt(1)).build(false);
+                } else {
+                    plugin.log("Can't set id for multiplier: " + multiplier.toString());
+                }
             }
         } catch (SQLException ex) {
             plugin.log("Something was wrong when creating a multiplier for " + plugin.getName(multiplier.getData().getEnablerUUID(), false));
-            plugin.debug(multiplier.toJson().toString());
+            plugin.debug(() -> CoinsPlugin.GSON.toJson(multiplier));
             plugin.debug(ex);
         }
         throw new RuntimeException("It is not possible to set ID for multiplier: " + multiplier.toString());
@@ -247,13 +430,9 @@ public abstract class SQLDatabase implements StorageProvider {
 
     @Override
     public Multiplier getMultiplier(int id) {
-        try (Connection c = getConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIER_ID, id); ResultSet res = ps.executeQuery()) {
+        try (Connection c = getMultiplierReadConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIER_ID, id); ResultSet res = ps.executeQuery()) {
             if (res.next()) {
-                return Multiplier.builder().setServer(res.getString("server"))
-                        .setData(getDataFromResultSet(res))
-                        .setId(res.getInt("id"))
-                        .setEnabled(res.getBoolean("enabled") || res.getBoolean("queue"))
-                        .build(false);
+                return getMultiplierFromResultSet(res);
             }
         } catch (SQLException ex) {
             plugin.log("An error has occurred getting the multiplier with the id #" + id + " from the database.");
@@ -265,7 +444,7 @@ public abstract class SQLDatabase implements StorageProvider {
     @Override
     public Collection<Multiplier> getMultipliers() {
         Set<Multiplier> multipliers = new LinkedHashSet<>();
-        try (Connection c = getConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIERS_IDS); ResultSet res = ps.executeQuery()) {
+        try (Connection c = getMultiplierReadConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIERS_IDS); ResultSet res = ps.executeQuery()) {
             while (res.next()) {
                 multipliers.add(getMultiplier(res.getInt("id")));
             }
@@ -279,7 +458,7 @@ public abstract class SQLDatabase implements StorageProvider {
     @Override
     public Collection<Multiplier> getMultipliers(String server) {
         Set<Multiplier> multipliers = new LinkedHashSet<>();
-        try (Connection c = getConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIERS_IDS_SERVER, server); ResultSet res = ps.executeQuery()) {
+        try (Connection c = getMultiplierReadConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIERS_IDS_SERVER, server); ResultSet res = ps.executeQuery()) {
             while (res.next()) {
                 multipliers.add(getMultiplier(res.getInt("id")));
             }
@@ -293,7 +472,7 @@ public abstract class SQLDatabase implements StorageProvider {
     @Override
     public Collection<Multiplier> getMultipliers(String server, boolean enabled) {
         Set<Multiplier> multipliers = new LinkedHashSet<>();
-        try (Connection c = getConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIERS_IDS_SERVER_ENABLED, server, enabled); ResultSet res = ps.executeQuery()) {
+        try (Connection c = getMultiplierReadConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIERS_IDS_SERVER_ENABLED, server, enabled); ResultSet res = ps.executeQuery()) {
             while (res.next()) {
                 multipliers.add(getMultiplier(res.getInt("id")));
             }
@@ -307,9 +486,9 @@ public abstract class SQLDatabase implements StorageProvider {
     @Override
     public Collection<Multiplier> getMultipliersFor(UUID uuid) {
         Set<Multiplier> multipliers = new LinkedHashSet<>();
-        try (Connection c = getConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIERS_IDS_PLAYER, uuid); ResultSet res = ps.executeQuery()) {
+        try (Connection c = getMultiplierReadConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIERS_PLAYER, uuid); ResultSet res = ps.executeQuery()) {
             while (res.next()) {
-                multipliers.add(getMultiplier(res.getInt("id")));
+                multipliers.add(getMultiplierFromResultSet(res));
             }
         } catch (SQLException ex) {
             plugin.log("An error has occurred getting all the multipliers for " + uuid);
@@ -321,7 +500,7 @@ public abstract class SQLDatabase implements StorageProvider {
     @Override
     public Collection<Multiplier> getMultipliersFor(UUID uuid, boolean enabled) {
         Set<Multiplier> multipliers = new LinkedHashSet<>();
-        try (Connection c = getConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIERS_IDS_PLAYER_ENABLED, uuid, enabled); ResultSet res = ps.executeQuery()) {
+        try (Connection c = getMultiplierReadConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIERS_IDS_PLAYER_ENABLED, uuid, enabled); ResultSet res = ps.executeQuery()) {
             while (res.next()) {
                 multipliers.add(getMultiplier(res.getInt("id")));
             }
@@ -335,7 +514,7 @@ public abstract class SQLDatabase implements StorageProvider {
     @Override
     public Collection<Multiplier> getMultipliersFor(UUID uuid, String server) {
         Set<Multiplier> multipliers = new LinkedHashSet<>();
-        try (Connection c = getConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIERS_IDS_PLAYER_SERVER, uuid, server); ResultSet res = ps.executeQuery()) {
+        try (Connection c = getMultiplierReadConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIERS_IDS_PLAYER_SERVER, uuid, server); ResultSet res = ps.executeQuery()) {
             while (res.next()) {
                 multipliers.add(getMultiplier(res.getInt("id")));
             }
@@ -349,7 +528,7 @@ public abstract class SQLDatabase implements StorageProvider {
     @Override
     public Collection<Multiplier> getMultipliersFor(UUID uuid, String server, boolean enabled) {
         Set<Multiplier> multipliers = new LinkedHashSet<>();
-        try (Connection c = getConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIERS_IDS_PLAYER_SERVER_ENABLED, uuid, server, enabled); ResultSet res = ps.executeQuery()) {
+        try (Connection c = getMultiplierReadConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_MULTIPLIERS_IDS_PLAYER_SERVER_ENABLED, uuid, server, enabled); ResultSet res = ps.executeQuery()) {
             while (res.next()) {
                 multipliers.add(getMultiplier(res.getInt("id")));
             }
@@ -362,6 +541,7 @@ public abstract class SQLDatabase implements StorageProvider {
 
     @Override
     public void enableMultiplier(Multiplier multiplier) {
+        lastMultiplierWrite = System.currentTimeMillis();
         try (Connection c = getConnection()) {
             DatabaseUtils.prepareStatement(c, SQLQuery.ENABLE_MULTIPLIER, multiplier.getStart(), multiplier.getQueueStart(), multiplier.getId()).executeUpdate();
         } catch (SQLException ex) {
@@ -372,6 +552,7 @@ public abstract class SQLDatabase implements StorageProvider {
 
     @Override
     public void deleteMultiplier(Multiplier multiplier) {
+        lastMultiplierWrite = System.currentTimeMillis();
         try (Connection c = getConnection()) {
             DatabaseUtils.prepareStatement(c, SQLQuery.DELETE_MULTIPLIER, multiplier.getId()).executeUpdate();
         } catch (SQLException ex) {
@@ -382,6 +563,7 @@ public abstract class SQLDatabase implements StorageProvider {
 
     @Override
     public void updateMultiplier(Multiplier multiplier) {
+        lastMultiplierWrite = System.currentTimeMillis();
         try (Connection c = getConnection()) {
             DatabaseUtils.prepareStatement(c, SQLQuery.UPDATE_MULTIPLIER, multiplier.getServer(), multiplier.getData().getType(), multiplier.getData().getAmount(), multiplier.getData().getMinutes(), multiplier.getStart(), multiplier.getQueueStart(), multiplier.getData().getEnablerUUID(), multiplier.getId()).executeUpdate();
         } catch (SQLException ex) {
@@ -391,39 +573,666 @@ public abstract class SQLDatabase implements StorageProvider {
     }
 
     @Override
+    public boolean acquireMultiplierLease(Multiplier multiplier, long expires) {
+        MultiplierType type = multiplier.getData().getType();
+        if (type == MultiplierType.PERSONAL) {
+            return true;
+        }
+        String slot = type == MultiplierType.GLOBAL ? GLOBAL_LEASE_SLOT : multiplier.getServer();
+        try (Connection c = getConnection()) {
+            createLeasesTable(c);
+            try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.ACQUIRE_MULTIPLIER_LEASE, multiplier.getId(), CoinsAPI.getServerName(), expires, slot, type, System.currentTimeMillis(), multiplier.getId())) {
+                if (ps.executeUpdate() > 0) {
+                    return true;
+                }
+            }
+            try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.CREATE_MULTIPLIER_LEASE, slot, type, multiplier.getId(), CoinsAPI.getServerName(), expires)) {
+                return ps.executeUpdate() > 0;
+            } catch (SQLException ex) { // slot was created by other server, so it holds the lease
+                plugin.debug(() -> "Multiplier #" + multiplier.getId() + " lost the " + type + " slot for '" + slot + "'");
+                return false;
+            }
+        } catch (SQLException ex) {
+            plugin.log("An error has occurred acquiring the lease for the multiplier #" + multiplier.getId());
+            plugin.debug(ex);
+        }
+        return false;
+    }
+
+    @Override
+    public void releaseMultiplierLease(Multiplier multiplier) {
+        if (multiplier.getData().getType() == MultiplierType.PERSONAL) {
+            return;
+        }
+        try (Connection c = getConnection()) {
+            createLeasesTable(c);
+            try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.RELEASE_MULTIPLIER_LEASE, multiplier.getId())) {
+                ps.executeUpdate();
+            }
+        } catch (SQLException ex) {
+            plugin.log("An error has occurred releasing the lease for the multiplier #" + multiplier.getId());
+            plugin.debug(ex);
+        }
+    }
+
+    @Override
+    @Deprecated
     public LinkedHashMap<String, Double> getAllPlayers() {
         LinkedHashMap<String, Double> data = new LinkedHashMap<>();
-        try (Connection c = getConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_ALL_PLAYERS); ResultSet res = ps.executeQuery()) {
-            while (res.next()) {
-                data.put(res.getString("name") + "," + res.getString("uuid"), res.getDouble("balance"));
+        forEachPlayer(user -> data.put(user.getName() + "," + user.getUniqueId(), user.getCoins()));
+        return data;
+    }
+
+    @Override
+    public boolean forEachPlayer(@Nonnull Consumer<CoinsUser> action) {
+        int fetchSize = plugin.getConfig().getInt("MySQL.Fetch Size", DEFAULT_FETCH_SIZE);
+        try (Connection c = getReadConnection(null)) {
+            boolean autoCommit = c.getAutoCommit();
+            if (autoCommit) { // some drivers only use server side cursors inside a transaction
+                c.setAutoCommit(false);
             }
+            try (PreparedStatement ps = DatabaseUtils.prepareCursor(c, SQLQuery.SELECT_ALL_PLAYERS, fetchSize); ResultSet res = ps.executeQuery()) {
+                while (res.next()) {
+                    action.accept(getUserFromResultSet(res));
+                }
+            } finally {
+                if (autoCommit) {
+                    c.commit();
+                    c.setAutoCommit(true);
+                }
+            }
+            return true;
         } catch (SQLException ex) {
             plugin.log("An error has occurred getting all the players from the database, check the logs for more info.");
             plugin.debug(ex);
         }
-        return data;
+        return false;
     }
 
+    /**
+     * Start a background job to remove inactive users and their multipliers from the database, users are removed in
+     * small chunks ordered by id with a pause between chunks, so other queries don't wait for a long delete.
+     *
+     * @param c connection used to create the index on the last login of users.
+     * @throws SQLException if there is an error checking the connection.
+     */
     protected void purgeDatabase(Connection c) throws SQLException {
-        if (plugin.getConfig().getBoolean("General.Purge.Enabled", true) && plugin.getConfig().getInt("General.Purge.Days") > 0) {
-            try (Statement st = c.createStatement()) {
-                st.executeUpdate("DELETE FROM " + DATA_TABLE + " WHERE lastlogin < " + (System.currentTimeMillis() - TimeUnit.DAYS.toMillis(plugin.getConfig().getInt("General.Purge.Days", 60))) + ";");
-            }
-            plugin.debug("Inactive users were removed from the database.");
+        if (!plugin.getConfig().getBoolean("General.Purge.Enabled", true) || plugin.getConfig().getInt("General.Purge.Days") <= 0) {
+            return;
         }
+        try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.CREATE_LASTLOGIN_INDEX)) {
+            ps.executeUpdate();
+            plugin.debug("Created index for the last login of users.");
+        } catch (SQLException ex) { // index already exists
+            plugin.debug("Index for the last login of users was not created: %s", ex.getMessage());
+        }
+        long inactiveSince = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(plugin.getConfig().getInt("General.Purge.Days", 60));
+        plugin.getBootstrap().runAsync(() -> purgeInactiveUsers(inactiveSince));
     }
 
     protected abstract void updateDatabase();
 
+    /**
+     * Create the unique index for the UUID of players needed by the upserts and an index for the name, and check that
+     * the unique index exists. Implementations should call this from {@link #setup()} or {@link #updateDatabase()},
+     * creating the indexes locks the data table, so this is never done when players join, if this wasn't called
+     * players are created without the upserts.
+     *
+     * <p>This is a migration for existing tables: if the table has many rows with the same UUID the unique index can't
+     * be created and players are created without the upserts until the duplicated rows are removed, keeping the row
+     * with the latest login of every UUID, and the server is restarted. Names are never unique, a player that takes
+     * the name of other player is handled when he joins.
+     *
+     * @param c connection used to create the indexes.
+     */
+    protected void createUserIndexes(Connection c) {
+        for (SQLQuery query : new SQLQuery[]{SQLQuery.CREATE_UUID_UNIQUE_INDEX, SQLQuery.CREATE_NAME_INDEX}) {
+            try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, query)) {
+                ps.executeUpdate();
+            } catch (SQLException ex) { // already exists or there are duplicated values
+                plugin.debug("Index was not created: %s", ex.getMessage());
+            }
+        }
+        Set<String> uniqueColumns = new HashSet<>();
+        try (ResultSet res = c.getMetaData().getIndexInfo(null, null, DATA_TABLE, true, false)) {
+            Map<String, List<String>> indexes = new HashMap<>();
+            while (res.next()) {
+                if (res.getString("INDEX_NAME") != null && res.getString("COLUMN_NAME") != null) {
+                    indexes.computeIfAbsent(res.getString("INDEX_NAME"), index -> new ArrayList<>()).add(res.getString("COLUMN_NAME").toLowerCase());
+                }
+            }
+            indexes.values().stream().filter(columns -> columns.size() == 1).forEach(columns -> uniqueColumns.add(columns.get(0)));
+        } catch (SQLException ex) {
+            plugin.log("Can't check the unique indexes of the data table, players will be created with many queries.");
+            plugin.debug(ex);
+            upsertSupported = false;
+            return;
+        }
+        upsertSupported = uniqueColumns.contains("uuid");
+        if (!upsertSupported) {
+            plugin.log("Can't create an unique index for the UUID of players, remove the duplicated UUIDs from the database and restart the server.");
+        }
+    }
+
+    /**
+     * Enable the prepared statement cache of the JDBC driver for a pool, so queries executed on every API call are
+     * only parsed once per connection, and cursor based fetching so {@link #forEachPlayer(Consumer)} doesn't load the
+     * whole table at once. Implementations should call this before creating the pool.
+     *
+     * @param config configuration for the pool.
+     */
+    protected void configureStatementCache(HikariConfig config) {
+        if (getStorageType() == StorageType.SQLITE) {
+            return;
+        }
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.addDataSourceProperty("useServerPrepStmts", "true");
+        config.addDataSourceProperty("useCursorFetch", "true");
+    }
+
+    /**
+     * Create the pool for the read replica if one is configured in {@code MySQL.Read Replica.URL}, the pool uses the
+     * same settings as the primary pool. For SQLite this creates the pools used by the single writer and the readers
+     * of the same database file instead. Implementations should call this after creating the primary pool in
+     * {@link #setup()}.
+     *
+     * @param primary configuration of the primary pool.
+     */
+    protected void setupReadReplica(HikariConfig primary) {
+        if (getStorageType() == StorageType.SQLITE) {
+            setupSQLitePools(primary);
+            return;
+        }
+        String url = plugin.getConfig().getString("MySQL.Read Replica.URL", "");
+        if (url == null || url.isEmpty()) {
+            return;
+        }
+        HikariConfig config = new HikariConfig();
+        primary.copyStateTo(config);
+        config.setPoolName((primary.getPoolName() != null ? primary.getPoolName() : "Coins") + " Read Replica");
+        config.setDataSourceClassName(null);
+        config.setJdbcUrl(url);
+        config.setReadOnly(true);
+        config.setMaximumPoolSize(Math.max(plugin.getConfig().getInt("MySQL.Read Replica.Pool Size", primary.getMaximumPoolSize()), 1));
+        try {
+            readDs = new HikariDataSource(config);
+            plugin.log("Using read replica for read only queries.");
+        } catch (RuntimeException ex) {
+            plugin.log("Can't connect to the read replica, all queries will use the primary database.");
+            plugin.debug(ex);
+        }
+    }
+
+    /**
+     * Switch the SQLite database to WAL mode, so readers don't block the writer, and create a pool with a single
+     * connection for the {@link SQLiteWriter} and a read only pool for the reads.
+     */
+    private void setupSQLitePools(HikariConfig primary) {
+        HikariConfig writerConfig = new HikariConfig();
+        primary.copyStateTo(writerConfig);
+        writerConfig.setPoolName((primary.getPoolName() != null ? primary.getPoolName() : "Coins") + " Writer");
+        writerConfig.setMaximumPoolSize(1);
+        writerConfig.setMinimumIdle(1);
+        writerConfig.addDataSourceProperty("journal_mode", "WAL");
+        writerConfig.addDataSourceProperty("synchronous", "NORMAL");
+        HikariConfig readConfig = new HikariConfig();
+        primary.copyStateTo(readConfig);
+        readConfig.setPoolName((primary.getPoolName() != null ? primary.getPoolName() : "Coins") + " Reader");
+        readConfig.setMaximumPoolSize(Math.max(plugin.getConfig().getInt("SQLite.Read Pool Size", DEFAULT_SQLITE_READ_POOL_SIZE), 1));
+        readConfig.addDataSourceProperty("open_mode", "1"); // SQLITE_OPEN_READONLY, the driver can't change it after the connection is open
+        try {
+            sqliteWriter = new SQLiteWriter(new HikariDataSource(writerConfig));
+            readDs = new HikariDataSource(readConfig);
+            plugin.debug("Using WAL mode with a single writer for SQLite.");
+        } catch (RuntimeException ex) {
+            plugin.log("Can't setup the SQLite writer, all queries will use the same pool.");
+            plugin.debug(ex);
+            if (sqliteWriter != null) {
+                sqliteWriter.close();
+                sqliteWriter = null;
+            }
+        }
+    }
+
+    /**
+     * Create or update a player with a single upsert and get his balance, this needs the unique index for the UUID
+     * created by {@link #createUserIndexes(Connection)}. If the index doesn't exist, the name belongs to other player,
+     * or the upsert fails, callers must fallback to {@link #createPlayer(UUID, String, double)}, which resolves the
+     * name conflicts.
+     *
+     * @return balance of the player, or -1 if the upsert can't be used.
+     */
+    private double upsertPlayer(Connection c, UUID uuid, String name, double balance) throws SQLException {
+        if (!Boolean.TRUE.equals(upsertSupported)) {
+            return -1;
+        }
+        long now = System.currentTimeMillis();
+        Upsert upsert;
+        try {
+            markWritten(uuid);
+            if (getStorageType() == StorageType.SQLITE) {
+                SQLiteWriter writer = sqliteWriter;
+                upsert = writer != null ? writer.execute(wc -> upsertSQLite(wc, uuid, name, balance, now)) : upsertSQLite(c, uuid, name, balance, now);
+            } else if (isNameTaken(c, uuid, name)) {
+                upsert = null;
+            } else {
+                try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.UPSERT_USER_MYSQL, uuid, name, balance, now)) {
+                    boolean created = ps.executeUpdate() == 1; // 2 if the row was updated, 0 if nothing changed
+                    upsert = new Upsert(selectBalance(c, uuid), created);
+                }
+            }
+        } catch (SQLException ex) {
+            if (String.valueOf(ex.getMessage()).toLowerCase().contains("syntax")) {
+                plugin.log("The database doesn't support upserts, players will be created with many queries.");
+                upsertSupported = false;
+            }
+            plugin.debug("Upsert for %s failed, checking if the player exists: %s", name, ex.getMessage());
+            return -1;
+        }
+        if (upsert == null) {
+            plugin.debug("The name %s belongs to other player, checking if the player exists.", name);
+            return -1;
+        }
+        UUIDUtil.update(uuid, name);
+        CoinsAPI.getExistenceCache().addPlayer(uuid, name);
+        if (upsert.created) {
+            plugin.getMessagingService().publishUserCreated(uuid, name);
+        }
+        return upsert.coins;
+    }
+
+    /**
+     * Upsert a player in SQLite, checking before if he exists and if his name belongs to other player, in the writer
+     * this runs in the same transaction as the upsert.
+     *
+     * @return result of the upsert, or null if the name belongs to other player.
+     */
+    private Upsert upsertSQLite(Connection c, UUID uuid, String name, double balance, long now) throws SQLException {
+        if (isNameTaken(c, uuid, name)) {
+            return null;
+        }
+        boolean created = !_isindb(c, uuid);
+        if (returningSupported) {
+            try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.UPSERT_USER_SQLITE, uuid, name, balance, now); ResultSet res = ps.executeQuery()) {
+                return new Upsert(res.next() ? res.getDouble(1) : selectBalance(c, uuid), created);
+            } catch (SQLException ex) {
+                if (!String.valueOf(ex.getMessage()).contains("RETURNING")) {
+                    throw ex;
+                }
+                returningSupported = false;
+            }
+        }
+        try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.UPSERT_USER_SQLITE_NO_RETURNING, uuid, name, balance, now)) {
+            ps.executeUpdate();
+        }
+        return new Upsert(selectBalance(c, uuid), created);
+    }
+
+    private boolean isNameTaken(Connection c, UUID uuid, String name) throws SQLException {
+        UUID owner = getUUID(c, name);
+        return owner != null && !owner.equals(uuid);
+    }
+
+    private double selectBalance(Connection c, UUID uuid) throws SQLException {
+        try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_BALANCE, uuid); ResultSet res = ps.executeQuery()) {
+            if (!res.next()) {
+                throw new SQLException("Player " + uuid + " wasn't found after the upsert");
+            }
+            return res.getDouble("balance");
+        }
+    }
+
+    /**
+     * Execute an update, on SQLite it is executed by the {@link SQLiteWriter} instead of the given connection.
+     */
+    private int executeUpdate(Connection c, SQLQuery query, Object... parameters) throws SQLException {
+        SQLiteWriter writer = sqliteWriter;
+        if (writer != null) {
+            return writer.execute(wc -> {
+                try (PreparedStatement ps = DatabaseUtils.prepareStatement(wc, query, parameters)) {
+                    return ps.executeUpdate();
+                }
+            });
+        }
+        try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, query, parameters)) {
+            return ps.executeUpdate();
+        }
+    }
+
+    private void purgeInactiveUsers(long inactiveSince) {
+        int chunkSize = Math.max(plugin.getConfig().getInt("General.Purge.Chunk Size", DEFAULT_PURGE_CHUNK_SIZE), 1);
+        long pause = Math.max(plugin.getConfig().getInt("General.Purge.Pause Millis", DEFAULT_PURGE_PAUSE_MILLIS), 0);
+        long start = System.currentTimeMillis();
+        long lastId = 0;
+        long purged = 0;
+        int chunks = 0;
+        try {
+            while (ds != null && ds.isRunning()) {
+                long chunkStart = lastId;
+                long chunkEnd = -1;
+                try (Connection c = getConnection()) {
+                    try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.SELECT_INACTIVE_IDS, chunkStart, inactiveSince, chunkSize); ResultSet res = ps.executeQuery()) {
+                        while (res.next()) {
+                            chunkEnd = res.getLong("id");
+                        }
+                    }
+                    if (chunkEnd == -1) {
+                        break;
+                    }
+                    try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.PURGE_USERS, chunkStart, chunkEnd, inactiveSince, MultiplierData.SERVER_UUID)) {
+                        purged += ps.executeUpdate();
+                    }
+                    try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.PURGE_MULTIPLIERS, chunkStart, chunkEnd)) {
+                        ps.executeUpdate();
+                    }
+                }
+                lastId = chunkEnd;
+                if (++chunks % PURGE_PROGRESS_CHUNKS == 0) {
+                    plugin.log("Purging inactive users, " + purged + " users were removed so far.");
+                } else {
+                    plugin.debug("Purged inactive users up to id %s, %s removed so far.", lastId, purged);
+                }
+                if (pause > 0) {
+                    Thread.sleep(pause);
+                }
+            }
+            try (Connection c = getConnection(); PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.PURGE_ORPHAN_MULTIPLIERS)) {
+                int multipliers = ps.executeUpdate();
+                plugin.debug("Removed %s multipliers of users that don't exist.", multipliers);
+            }
+            plugin.log("Removed " + purged + " inactive users from the database in " + (System.currentTimeMillis() - start) + "ms.");
+        } catch (SQLException ex) {
+            plugin.log("An error has occurred purging inactive users after removing " + purged + " users, check the logs for more info.");
+            plugin.debug(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean writeLedger(@Nonnull List<LedgerEntry> entries) {
+        if (entries.isEmpty()) {
+            return true;
+        }
+        try (Connection c = getConnection()) {
+            createLedgerTable(c);
+            SQLiteWriter writer = sqliteWriter;
+            if (writer != null) {
+                return writer.execute(wc -> insertLedger(wc, entries));
+            }
+            boolean autoCommit = c.getAutoCommit();
+            c.setAutoCommit(false);
+            try {
+                insertLedger(c, entries);
+                c.commit();
+            } catch (SQLException ex) {
+                c.rollback();
+                throw ex;
+            } finally {
+                c.setAutoCommit(autoCommit);
+            }
+            return true;
+        } catch (SQLException ex) {
+            plugin.debug("Can't write %s entries to the ledger: %s", entries.size(), ex.getMessage());
+            return false;
+        }
+    }
+
+    private boolean insertLedger(Connection c, List<LedgerEntry> entries) throws SQLException {
+        for (int from = 0; from < entries.size(); from += LEDGER_ROWS_PER_INSERT) {
+            List<LedgerEntry> rows = entries.subList(from, Math.min(from + LEDGER_ROWS_PER_INSERT, entries.size()));
+            StringBuilder query = new StringBuilder("INSERT INTO `").append(LEDGER_TABLE).append("` (`tx`, `leg`, `uuid`, `delta`, `balance`, `cause`, `server`, `time`) VALUES ");
+            for (int i = 0; i < rows.size(); i++) {
+                query.append(i == 0 ? "(?, ?, ?, ?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?, ?, ?, ?)");
+            }
+            query.append(";");
+            try (PreparedStatement ps = c.prepareStatement(query.toString())) {
+                int index = 1;
+                for (LedgerEntry entry : rows) {
+                    ParameterType.UUID.bind(ps, index++, entry.getTransactionId());
+                    ParameterType.INT.bind(ps, index++, entry.getLeg());
+                    ParameterType.UUID.bind(ps, index++, entry.getUniqueId());
+                    ParameterType.DOUBLE.bind(ps, index++, entry.getDelta());
+                    ParameterType.DOUBLE.bind(ps, index++, entry.getBalance());
+                    ParameterType.STRING.bind(ps, index++, entry.getCause().length() > 64 ? entry.getCause().substring(0, 64) : entry.getCause());
+                    ParameterType.LOWERCASE_STRING.bind(ps, index++, entry.getServer());
+                    ParameterType.LONG.bind(ps, index++, entry.getTimestamp());
+                }
+                ps.executeUpdate();
+            }
+        }
+        return true;
+    }
+
+    private void createLedgerTable(Connection c) throws SQLException {
+        if (ledgerTableCreated) {
+            return;
+        }
+        try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.CREATE_LEDGER_TABLE)) {
+            ps.executeUpdate();
+        }
+        try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.CREATE_LEDGER_INDEX)) {
+            ps.executeUpdate();
+        } catch (SQLException ex) { // index already exists
+            plugin.debug("Index for the ledger was not created: %s", ex.getMessage());
+        }
+        ledgerTableCreated = true;
+    }
+
+    private void createLeasesTable(Connection c) throws SQLException {
+        if (leasesTableCreated) {
+            return;
+        }
+        try (PreparedStatement ps = DatabaseUtils.prepareStatement(c, SQLQuery.CREATE_MULTIPLIER_LEASES_TABLE)) {
+            ps.executeUpdate();
+        }
+        leasesTableCreated = true;
+    }
+
+    /**
+     * Get a connection for the current operation, if there is a unit of work running in this thread the connection of
+     * that unit of work is returned and closing it does nothing, otherwise a new connection is taken from the pool.
+     *
+     * @return connection to the database.
+     * @throws SQLException if no connection can be obtained.
+     */
     private Connection getConnection() throws SQLException {
-        if (ds != null && !ds.isClosed() && ds.isRunning()) {
-            return ds.getConnection();
-        } else {
+        UnitOfWork current = unitOfWork.get();
+        if (current != null) {
+            return current.getConnection();
+        }
+        return openConnection();
+    }
+
+    /**
+     * Get a connection for a read only query, if there is a read replica the connection is taken from it unless the
+     * data read may have been written by this server recently and the replica may not have it yet, in that case or
+     * if the replica fails a connection to the primary database is returned. Balances must not be read with this
+     * connection, the replica only knows the writes of this server, so it may return a balance changed by other
+     * server recently.
+     *
+     * @param uuid player whose data will be read, used to read his own writes from the primary database, may be
+     *             null.
+     * @return connection to the read replica or the primary database.
+     * @throws SQLException if no connection can be obtained.
+     */
+    private Connection getReadConnection(UUID uuid) throws SQLException {
+        HikariDataSource replica = readDs;
+        if (replica == null || !replica.isRunning() || (uuid != null && recentWrites.getIfPresent(uuid) != null)) {
+            return getConnection();
+        }
+        try {
+            return replica.getConnection();
+        } catch (SQLException ex) {
+            plugin.debug("Can't get a connection from the read replica, using the primary database: %s", ex.getMessage());
+            return getConnection();
+        }
+    }
+
+    private Connection getMultiplierReadConnection() throws SQLException {
+        if (System.currentTimeMillis() - lastMultiplierWrite < replicaLagMillis) {
+            return getConnection();
+        }
+        return getReadConnection(null);
+    }
+
+    private void markWritten(UUID uuid) {
+        if (readDs != null && sqliteWriter == null) { // SQLite readers see the writes as soon as they are committed
+            recentWrites.put(uuid, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Take a connection from the pool, reconnecting if the pool isn't running. Only one thread rebuilds the pool at a
+     * time, and while the database is down calls fail fast until the circuit breaker allows a new try.
+     *
+     * @return connection to the database.
+     * @throws SQLException if no connection can be obtained.
+     */
+    private Connection openConnection() throws SQLException {
+        if (!circuitBreaker.tryAcquire()) {
+            throw new SQLTransientConnectionException("Database is unavailable, retrying in " + circuitBreaker.getRetryDelay() + "ms");
+        }
+        Connection connection;
+        try {
+            if (ds != null && !ds.isClosed() && ds.isRunning()) {
+                connection = ds.getConnection();
+            } else {
+                connection = reconnect();
+            }
+        } catch (SQLException | RuntimeException ex) {
+            circuitBreaker.onFailure();
+            throw ex;
+        }
+        if (connection == null) { // other thread is reconnecting, don't count it as a failure
+            throw new SQLTransientConnectionException("Reconnecting to the database");
+        }
+        if (circuitBreaker.onSuccess()) {
+            plugin.log("Connection to the database was restored.");
+        }
+        flushQueuedWrites(); // also writes the balances saved in the last shutdown
+        return connection;
+    }
+
+    private Connection reconnect() throws SQLException {
+        if (!reconnectLock.tryLock()) {
+            return null;
+        }
+        try {
+            if (ds != null && !ds.isClosed() && ds.isRunning()) { // other thread already reconnected
+                return ds.getConnection();
+            }
             plugin.debug("Connection is invalid, trying to reconnect.");
             shutdown();
             setup();
+            if (ds == null) {
+                throw new SQLTransientConnectionException("Can't reconnect to the database");
+            }
+            return ds.getConnection();
+        } finally {
+            reconnectLock.unlock();
         }
-        return ds.getConnection();
+    }
+
+    /**
+     * Keep a balance update to write it when the connection to the database is restored, setting a balance replaces
+     * the previous one, so only the last balance of every player is kept. Queued balances are saved to a file if the
+     * server is stopped before they are written.
+     *
+     * <p> Queued balances are absolute, when they are written they replace any balance that other server wrote for the
+     * same player while this server couldn't reach the database.
+     */
+    private CoinsResponse queueWrite(UUID uuid, double amount) {
+        if (queuedWrites.size() >= maxQueuedWrites && !queuedWrites.containsKey(uuid)) {
+            plugin.log("Can't set the balance of " + uuid + ", the database is unavailable and there are too many queued writes.");
+            return new CoinsResponse(CoinsResponse.CoinsResponseType.FAILED, "Errors.Database");
+        }
+        queuedWrites.put(uuid, amount);
+        markWritten(uuid);
+        plugin.debug("Database is unavailable, balance for %s was queued.", uuid);
+        return CoinsResponse.SUCCESS;
+    }
+
+    private void saveQueuedWrites() {
+        Properties properties = new Properties();
+        queuedWrites.forEach((uuid, balance) -> properties.setProperty(uuid.toString(), Double.toString(balance)));
+        File tmp = new File(queuedWritesFile.getParentFile(), QUEUED_WRITES_FILE + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                properties.store(out, "Balances that couldn't be written to the database, they will be written on next start");
+            }
+            Files.move(tmp.toPath(), queuedWritesFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            plugin.log(queuedWrites.size() + " balances couldn't be written to the database, they were saved to " + QUEUED_WRITES_FILE + " and will be written on next start.");
+        } catch (IOException ex) {
+            plugin.log(queuedWrites.size() + " balances couldn't be written to the database and can't be saved to " + QUEUED_WRITES_FILE + ".");
+            plugin.debug(ex);
+        }
+    }
+
+    private void loadQueuedWrites() {
+        if (!queuedWritesFile.exists()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(queuedWritesFile)) {
+            properties.load(in);
+        } catch (IOException ex) {
+            plugin.log("Can't read the balances saved in " + QUEUED_WRITES_FILE + ", they won't be written to the database.");
+            plugin.debug(ex);
+            return;
+        }
+        for (String uuid : properties.stringPropertyNames()) {
+            try {
+                queuedWrites.put(UUID.fromString(uuid), Double.parseDouble(properties.getProperty(uuid)));
+            } catch (IllegalArgumentException ex) {
+                plugin.debug("Ignoring invalid saved balance for %s", uuid);
+            }
+        }
+        plugin.log("Loaded " + queuedWrites.size() + " balances that couldn't be written to the database before the last shutdown.");
+        // they are kept in memory until written and saved again on shutdown, an old file must never be loaded twice
+        if (!queuedWritesFile.delete()) {
+            plugin.log("Can't delete " + QUEUED_WRITES_FILE + ", delete it before the next start so old balances aren't written again.");
+        }
+    }
+
+    @Override
+    public boolean flushPlayer(@Nonnull UUID uuid) {
+        Double queued = queuedWrites.get(uuid);
+        if (queued == null) {
+            return true;
+        }
+        try (Connection c = openConnection()) {
+            executeUpdate(c, SQLQuery.UPDATE_COINS, queued, uuid);
+            queuedWrites.remove(uuid, queued);
+            return !queuedWrites.containsKey(uuid);
+        } catch (SQLException ex) {
+            plugin.debug("Can't write the queued balance for %s: %s", uuid, ex.getMessage());
+            return false;
+        }
+    }
+
+    private void flushQueuedWrites() {
+        if (queuedWrites.isEmpty() || !flushingWrites.compareAndSet(false, true)) {
+            return;
+        }
+        plugin.getBootstrap().runAsync(() -> {
+            int written = 0;
+            try (Connection c = openConnection()) {
+                for (Map.Entry<UUID, Double> entry : queuedWrites.entrySet()) {
+                    executeUpdate(c, SQLQuery.UPDATE_COINS, entry.getValue(), entry.getKey());
+                    queuedWrites.remove(entry.getKey(), entry.getValue()); // keep it if it was queued again meanwhile
+                    written++;
+                }
+            } catch (SQLException ex) {
+                plugin.log("An error has occurred while writing queued balances to the database, " + queuedWrites.size() + " balances will be written later.");
+                plugin.debug(ex);
+            } finally {
+                flushingWrites.set(false);
+            }
+            plugin.debug("Written %s queued balances to the database.", written);
+        });
     }
 
     private boolean _isindb(Connection c, UUID uuid) throws SQLException {
@@ -464,9 +1273,17 @@ public abstract class SQLDatabase implements StorageProvider {
         return null;
     }
 
+    private Multiplier getMultiplierFromResultSet(ResultSet res) throws SQLException {
+        return Multiplier.builder().setServer(res.getString("server"))
+                .setData(getDataFromResultSet(res))
+                .setId(res.getInt("id"))
+                .setEnabled(res.getBoolean("enabled") || res.getBoolean("queue"))
+                .build(false);
+    }
+
     private MultiplierData getDataFromResultSet(ResultSet res) throws SQLException {
         return new MultiplierData(UUID.fromString(res.getString("uuid")),
-                plugin.getName(UUID.fromString(res.getString("uuid")), false),
+                UUIDUtil.getName(UUID.fromString(res.getString("uuid")), false),
                 res.getInt("amount"), res.getInt("minutes"),
                 MultiplierType.valueOf(res.getString("type")));
     }
@@ -493,13 +1310,84 @@ public abstract class SQLDatabase implements StorageProvider {
         return new CoinsUser(UUID.fromString(res.getString("uuid")), res.getString("name"), res.getDouble("balance"));
     }
 
+    /**
+     * Migrate players from the database of an old version of the plugin, rows are inserted in batches and players
+     * that already exist in the current database are skipped, so an interrupted migration can be started again.
+     *
+     * @param currentDatabaseConnection connection to the current database.
+     * @param oldDatabaseResultSet      players from the old database, with the columns uuid, nick, balance and
+     *                                  lastlogin.
+     * @return amount of players migrated.
+     * @throws SQLException if there is an error reading or writing players.
+     */
     protected long migratePlayersFromOldVersion(Connection currentDatabaseConnection, ResultSet oldDatabaseResultSet) throws SQLException {
-        long migrated = 0;
-        while (oldDatabaseResultSet.next()) { // start migrating data
-            DatabaseUtils.prepareStatement(currentDatabaseConnection, SQLQuery.CREATE_USER, oldDatabaseResultSet.getString("uuid"), oldDatabaseResultSet.getString("nick"), oldDatabaseResultSet.getDouble("balance"), oldDatabaseResultSet.getLong("lastlogin")).executeUpdate();
-            plugin.debug("Migrated the data for " + oldDatabaseResultSet.getString("nick") + " (" + oldDatabaseResultSet.getString("uuid") + ")");
-            migrated++;
+        return new LegacyMigration(plugin).migrate(currentDatabaseConnection, oldDatabaseResultSet);
+    }
+
+    /**
+     * Connection shared by all storage calls made during a single logical operation, the connection is taken from the
+     * pool the first time it is needed and returned when the operation finishes or when it is released while no
+     * storage call is using it.
+     */
+    private final class UnitOfWork {
+
+        private Connection connection;
+        private int borrowed;
+
+        private Connection getConnection() throws SQLException {
+            if (connection == null || connection.isClosed()) {
+                connection = openConnection();
+            }
+            Connection target = connection;
+            borrowed++;
+            AtomicBoolean closed = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                if (method.getName().equals("close")) { // connection will be closed when the unit of work ends
+                    if (closed.compareAndSet(false, true)) {
+                        borrowed--;
+                    }
+                    return null;
+                }
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException ex) {
+                    throw ex.getCause();
+                }
+            });
+        }
+
+        /**
+         * Return the connection to the pool if no storage call is using it.
+         */
+        private void release() {
+            if (borrowed == 0) {
+                close();
+            }
+        }
+
+        private void close() {
+            if (connection == null) {
+                return;
+            }
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                plugin.log("An error has occurred while closing the connection of a unit of work.");
+                plugin.debug(ex);
+            } finally {
+                connection = null;
+            }
+        }
+    }
+
+    private static final class Upsert {
+
+        private final double coins;
+        private final boolean created;
+
+        private Upsert(double coins, boolean created) {
+            this.coins = coins;
+            this.created = created;
         }
-        return migrated;
     }
 }
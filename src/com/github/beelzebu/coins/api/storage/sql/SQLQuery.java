@@ -19,6 +19,8 @@
 package com.github.beelzebu.coins.api.storage.sql;
 
 import com.github.beelzebu.coins.api.MultiplierType;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 
 /**
  * @author Beelzebu
@@ -37,11 +39,11 @@ public enum SQLQuery {
      * <li> UUID for the query. </li>
      * </ul>
      */
-    SELECT_NAME("SELECT name FROM `" + SQLDatabase.DATA_TABLE + "` WHERE uuid = ?;"),
-    SELECT_UUID("SELECT uuid FROM `" + SQLDatabase.DATA_TABLE + "` WHERE name = ?;"),
-    SELECT_BALANCE("SELECT balance FROM `" + SQLDatabase.DATA_TABLE + "` WHERE uuid = ?;"),
-    SELECT_USER_NAME("SELECT name,uuid,balance FROM `" + SQLDatabase.DATA_TABLE + "` WHERE name = ?;"),
-    SELECT_USER_UUID("SELECT name,uuid,balance FROM `" + SQLDatabase.DATA_TABLE + "` WHERE uuid = ?;"),
+    SELECT_NAME("SELECT name FROM `" + SQLDatabase.DATA_TABLE + "` WHERE uuid = ?;", ParameterType.UUID),
+    SELECT_UUID("SELECT uuid FROM `" + SQLDatabase.DATA_TABLE + "` WHERE name = ?;", ParameterType.LOWERCASE_STRING),
+    SELECT_BALANCE("SELECT balance FROM `" + SQLDatabase.DATA_TABLE + "` WHERE uuid = ?;", ParameterType.UUID),
+    SELECT_USER_NAME("SELECT name,uuid,balance FROM `" + SQLDatabase.DATA_TABLE + "` WHERE name = ?;", ParameterType.LOWERCASE_STRING),
+    SELECT_USER_UUID("SELECT name,uuid,balance FROM `" + SQLDatabase.DATA_TABLE + "` WHERE uuid = ?;", ParameterType.UUID),
     /**
      * Update coins for a user by his uuid:
      * </br>
@@ -51,7 +53,7 @@ public enum SQLQuery {
      * <li> UUID for the query</li>
      * </ul>
      */
-    UPDATE_COINS("UPDATE `" + SQLDatabase.DATA_TABLE + "` SET balance = ? WHERE uuid = ?;"),
+    UPDATE_COINS("UPDATE `" + SQLDatabase.DATA_TABLE + "` SET balance = ? WHERE uuid = ?;", ParameterType.DOUBLE, ParameterType.UUID),
     /**
      * Update name and last login for user, based on his UUID.
      * </br>
@@ -62,7 +64,7 @@ public enum SQLQuery {
      * <li> UUID for the query</li>
      * </ul>
      */
-    UPDATE_USER_NAME_LOGIN("UPDATE `" + SQLDatabase.DATA_TABLE + "` SET name = ?, lastlogin = ? WHERE uuid = ?;"),
+    UPDATE_USER_NAME_LOGIN("UPDATE `" + SQLDatabase.DATA_TABLE + "` SET name = ?, lastlogin = ? WHERE uuid = ?;", ParameterType.LOWERCASE_STRING, ParameterType.LONG, ParameterType.UUID),
     /**
      * Update data for a user when the server is in online mode.
      * </br>
@@ -73,7 +75,7 @@ public enum SQLQuery {
      * <li> Username for the query</li>
      * </ul>
      */
-    UPDATE_USER_UUID_LOGIN("UPDATE `" + SQLDatabase.DATA_TABLE + "` SET uuid = ?, lastlogin = ? WHERE name = ?;"),
+    UPDATE_USER_UUID_LOGIN("UPDATE `" + SQLDatabase.DATA_TABLE + "` SET uuid = ?, lastlogin = ? WHERE name = ?;", ParameterType.UUID, ParameterType.LONG, ParameterType.LOWERCASE_STRING),
     /**
      * Create a user in the database.
      * </br>
@@ -85,7 +87,40 @@ public enum SQLQuery {
      * <li> Current time in millis</li>
      * </ul>
      */
-    CREATE_USER("INSERT INTO `" + SQLDatabase.DATA_TABLE + "` (`id`, `uuid`, `name`, `balance`, `lastlogin`) VALUES (null, ?, ?, ?, ?);"),
+    CREATE_USER("INSERT INTO `" + SQLDatabase.DATA_TABLE + "` (`id`, `uuid`, `name`, `balance`, `lastlogin`) VALUES (null, ?, ?, ?, ?);", ParameterType.UUID, ParameterType.LOWERCASE_STRING, ParameterType.DOUBLE, ParameterType.LONG),
+    /**
+     * Create a user or refresh his name and last login if he already exists, requires an unique index for the UUID.
+     * Other user with the same name must be handled before, because the name isn't unique.
+     * </br>
+     * <strong>Params:</strong>
+     * <ul>
+     * <li> UUID of the user.</li>
+     * <li> Username of the user.</li>
+     * <li> Starting coins.</li>
+     * <li> Current time in millis</li>
+     * </ul>
+     */
+    UPSERT_USER_MYSQL("INSERT INTO `" + SQLDatabase.DATA_TABLE + "` (`uuid`, `name`, `balance`, `lastlogin`) VALUES (?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE `name` = VALUES(`name`), `lastlogin` = VALUES(`lastlogin`);", ParameterType.UUID, ParameterType.LOWERCASE_STRING, ParameterType.DOUBLE, ParameterType.LONG),
+    /**
+     * Same as {@link #UPSERT_USER_MYSQL} for SQLite, returning the balance of the user.
+     */
+    UPSERT_USER_SQLITE("INSERT INTO `" + SQLDatabase.DATA_TABLE + "` (`uuid`, `name`, `balance`, `lastlogin`) VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT(`uuid`) DO UPDATE SET `name` = excluded.`name`, `lastlogin` = excluded.`lastlogin` RETURNING `balance`;", ParameterType.UUID, ParameterType.LOWERCASE_STRING, ParameterType.DOUBLE, ParameterType.LONG),
+    /**
+     * Same as {@link #UPSERT_USER_SQLITE} for SQLite versions without support for RETURNING.
+     */
+    UPSERT_USER_SQLITE_NO_RETURNING("INSERT INTO `" + SQLDatabase.DATA_TABLE + "` (`uuid`, `name`, `balance`, `lastlogin`) VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT(`uuid`) DO UPDATE SET `name` = excluded.`name`, `lastlogin` = excluded.`lastlogin`;", ParameterType.UUID, ParameterType.LOWERCASE_STRING, ParameterType.DOUBLE, ParameterType.LONG),
+    /**
+     * Unique index for the UUID required by the upserts.
+     */
+    CREATE_UUID_UNIQUE_INDEX("CREATE UNIQUE INDEX `" + SQLDatabase.DATA_TABLE + "_uuid_unique` ON `" + SQLDatabase.DATA_TABLE + "` (`uuid`);"),
+    /**
+     * Index for the name used to check if the name of a player belongs to other player before the upsert, it isn't
+     * unique so old duplicated names don't break it.
+     */
+    CREATE_NAME_INDEX("CREATE INDEX `" + SQLDatabase.DATA_TABLE + "_name` ON `" + SQLDatabase.DATA_TABLE + "` (`name`);"),
     /**
      * Create a multiplier in the database.
      * </br>
@@ -104,7 +139,7 @@ public enum SQLQuery {
      */
     CREATE_MULTIPLIER("INSERT INTO `" + SQLDatabase.MULTIPLIERS_TABLE + "`" +
             "(`id`, `server`, `type`, `amount`, `minutes`, `start`, `queue`, `data_id`) VALUES " +
-            "(null, ?, ?, ?, ?, ?, ?, (SELECT id FROM `" + SQLDatabase.DATA_TABLE + "` WHERE uuid = ?));"),
+            "(null, ?, ?, ?, ?, ?, ?, (SELECT id FROM `" + SQLDatabase.DATA_TABLE + "` WHERE uuid = ?));", ParameterType.LOWERCASE_STRING, ParameterType.STRING, ParameterType.INT, ParameterType.INT, ParameterType.LONG, ParameterType.LONG, ParameterType.UUID),
     /**
      * Select top users from the database.
      * </br>
@@ -113,7 +148,7 @@ public enum SQLQuery {
      * <li> Limit of users to select</li>
      * </ul>
      */
-    SELECT_TOP("SELECT uuid,name,balance FROM `" + SQLDatabase.DATA_TABLE + "` ORDER BY balance DESC LIMIT ?;"), // TODO: add regexp filter: WHERE name NOT REGEXP '(?)-.+'
+    SELECT_TOP("SELECT uuid,name,balance FROM `" + SQLDatabase.DATA_TABLE + "` ORDER BY balance DESC LIMIT ?;", ParameterType.INT), // TODO: add regexp filter: WHERE name NOT REGEXP '(?)-.+'
     /**
      * Select a multiplier from the database by his id.
      * </br>
@@ -122,7 +157,7 @@ public enum SQLQuery {
      * <li> Multiplier ID</li>
      * </ul>
      */
-    SELECT_MULTIPLIER_ID("SELECT * FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE id = ?;"),
+    SELECT_MULTIPLIER_ID("SELECT * FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE id = ?;", ParameterType.INT),
     /**
      * Deletes a multiplier by his ID.
      * </br>
@@ -131,7 +166,7 @@ public enum SQLQuery {
      * <li> Multiplier ID</li>
      * </ul>
      */
-    DELETE_MULTIPLIER("DELETE FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE id = ?;"),
+    DELETE_MULTIPLIER("DELETE FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE id = ?;", ParameterType.INT),
     /**
      * Enables a multiplier by his ID.
      * </br>
@@ -140,26 +175,150 @@ public enum SQLQuery {
      * <li> Multiplier ID</li>
      * </ul>
      */
-    ENABLE_MULTIPLIER("UPDATE " + SQLDatabase.MULTIPLIERS_TABLE + " SET start = ?, queue = ? WHERE id = ?;"),
-    UPDATE_MULTIPLIER("UPDATE " + SQLDatabase.MULTIPLIERS_TABLE + " SET server = ?, type = ?, amount = ?, minutes = ?, start = ?, queue = ?, data_id = (SELECT id FROM " + SQLDatabase.DATA_TABLE + " WHERE uuid = ?) WHERE id = ?"),
+    ENABLE_MULTIPLIER("UPDATE " + SQLDatabase.MULTIPLIERS_TABLE + " SET start = ?, queue = ? WHERE id = ?;", ParameterType.LONG, ParameterType.LONG, ParameterType.INT),
+    UPDATE_MULTIPLIER("UPDATE " + SQLDatabase.MULTIPLIERS_TABLE + " SET server = ?, type = ?, amount = ?, minutes = ?, start = ?, queue = ?, data_id = (SELECT id FROM " + SQLDatabase.DATA_TABLE + " WHERE uuid = ?) WHERE id = ?", ParameterType.LOWERCASE_STRING, ParameterType.STRING, ParameterType.INT, ParameterType.INT, ParameterType.LONG, ParameterType.LONG, ParameterType.UUID, ParameterType.INT),
     /**
      * Select all multipliers from the database.
      */
     SELECT_MULTIPLIERS_IDS("SELECT id FROM " + SQLDatabase.MULTIPLIERS_TABLE + ";"),
-    SELECT_MULTIPLIERS_IDS_SERVER("SELECT id FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE server = ?;"),
-    SELECT_MULTIPLIERS_IDS_SERVER_ENABLED("SELECT id FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE server = ? AND enabled = ?;"),
-    SELECT_MULTIPLIERS_IDS_PLAYER("SELECT id FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE uuid = ?;"),
-    SELECT_MULTIPLIERS_IDS_PLAYER_ENABLED("SELECT id FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE uuid = ?;"),
-    SELECT_MULTIPLIERS_IDS_PLAYER_SERVER("SELECT id FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE uuid = ? AND server = ?;"),
-    SELECT_MULTIPLIERS_IDS_PLAYER_SERVER_ENABLED("SELECT id FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE uuid = ? AND server = ?;");
+    SELECT_MULTIPLIERS_IDS_SERVER("SELECT id FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE server = ?;", ParameterType.LOWERCASE_STRING),
+    SELECT_MULTIPLIERS_IDS_SERVER_ENABLED("SELECT id FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE server = ? AND enabled = ?;", ParameterType.LOWERCASE_STRING, ParameterType.BOOLEAN),
+    SELECT_MULTIPLIERS_IDS_PLAYER("SELECT id FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE uuid = ?;", ParameterType.UUID),
+    /**
+     * Select all multipliers owned by a player, with all their data so they are read in a single query.
+     */
+    SELECT_MULTIPLIERS_PLAYER("SELECT * FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE uuid = ?;", ParameterType.UUID),
+    SELECT_MULTIPLIERS_IDS_PLAYER_ENABLED("SELECT id FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE uuid = ?;", ParameterType.UUID),
+    SELECT_MULTIPLIERS_IDS_PLAYER_SERVER("SELECT id FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE uuid = ? AND server = ?;", ParameterType.UUID, ParameterType.LOWERCASE_STRING),
+    SELECT_MULTIPLIERS_IDS_PLAYER_SERVER_ENABLED("SELECT id FROM " + SQLDatabase.MULTIPLIERS_TABLE + " WHERE uuid = ? AND server = ?;", ParameterType.UUID, ParameterType.LOWERCASE_STRING),
+    /**
+     * Count all users in the database.
+     */
+    COUNT_USERS("SELECT COUNT(*) FROM `" + SQLDatabase.DATA_TABLE + "`;"),
+    /**
+     * Create an index on the last login of users, used to find inactive users without scanning the whole table.
+     */
+    CREATE_LASTLOGIN_INDEX("CREATE INDEX `" + SQLDatabase.DATA_TABLE + "_lastlogin` ON `" + SQLDatabase.DATA_TABLE + "` (`lastlogin`);"),
+    /**
+     * Select the next chunk of inactive users ordered by id.
+     * </br>
+     * <strong>Params:</strong>
+     * <ul>
+     * <li> Last id of the previous chunk</li>
+     * <li> Time in millis, users that logged in before are inactive</li>
+     * <li> Max amount of users in the chunk</li>
+     * </ul>
+     */
+    SELECT_INACTIVE_IDS("SELECT id FROM `" + SQLDatabase.DATA_TABLE + "` WHERE id > ? AND lastlogin < ? ORDER BY id LIMIT ?;", ParameterType.LONG, ParameterType.LONG, ParameterType.INT),
+    /**
+     * Delete inactive users in a range of ids, the last login is checked again so users that logged in after the
+     * chunk was selected are kept.
+     * </br>
+     * <strong>Params:</strong>
+     * <ul>
+     * <li> First id of the range, exclusive</li>
+     * <li> Last id of the range, inclusive</li>
+     * <li> Time in millis, users that logged in before are inactive</li>
+     * <li> UUID of the server account, which is never deleted</li>
+     * </ul>
+     */
+    PURGE_USERS("DELETE FROM `" + SQLDatabase.DATA_TABLE + "` WHERE id > ? AND id <= ? AND lastlogin < ? AND uuid <> ?;", ParameterType.LONG, ParameterType.LONG, ParameterType.LONG, ParameterType.UUID),
+    /**
+     * Delete multipliers owned by users that were deleted in a range of ids.
+     * </br>
+     * <strong>Params:</strong>
+     * <ul>
+     * <li> First id of the range, exclusive</li>
+     * <li> Last id of the range, inclusive</li>
+     * </ul>
+     */
+    PURGE_MULTIPLIERS("DELETE FROM `" + SQLDatabase.MULTIPLIERS_TABLE + "` WHERE data_id > ? AND data_id <= ? AND data_id NOT IN (SELECT id FROM `" + SQLDatabase.DATA_TABLE + "`);", ParameterType.LONG, ParameterType.LONG),
+    /**
+     * Delete all multipliers owned by users that don't exist anymore.
+     */
+    PURGE_ORPHAN_MULTIPLIERS("DELETE FROM `" + SQLDatabase.MULTIPLIERS_TABLE + "` WHERE data_id NOT IN (SELECT id FROM `" + SQLDatabase.DATA_TABLE + "`);"),
+    /**
+     * Create the table used to store activation slots for multipliers, there is one row per server and multiplier
+     * type.
+     */
+    CREATE_MULTIPLIER_LEASES_TABLE("CREATE TABLE IF NOT EXISTS `" + SQLDatabase.LEASES_TABLE + "` " +
+            "(`server` VARCHAR(50) NOT NULL, `type` VARCHAR(20) NOT NULL, `multiplier_id` INTEGER NOT NULL, " +
+            "`owner` VARCHAR(50) NOT NULL, `expires` BIGINT NOT NULL, PRIMARY KEY (`server`, `type`));"),
+    /**
+     * Take the activation slot for a multiplier if it is expired or already owned by the same multiplier.
+     * </br>
+     * <strong>Params:</strong>
+     * <ul>
+     * <li> Multiplier ID</li>
+     * <li> Name of the server taking the slot</li>
+     * <li> Time in millis when the lease expires</li>
+     * <li> Slot server</li>
+     * <li> Slot multiplier type</li>
+     * <li> Current time in millis</li>
+     * <li> Multiplier ID</li>
+     * </ul>
+     */
+    ACQUIRE_MULTIPLIER_LEASE("UPDATE `" + SQLDatabase.LEASES_TABLE + "` SET multiplier_id = ?, owner = ?, expires = ? " +
+            "WHERE server = ? AND type = ? AND (expires < ? OR multiplier_id = ?);", ParameterType.INT, ParameterType.LOWERCASE_STRING, ParameterType.LONG, ParameterType.LOWERCASE_STRING, ParameterType.STRING, ParameterType.LONG, ParameterType.INT),
+    /**
+     * Create the activation slot for a server and multiplier type, this will fail if other server created it first.
+     * </br>
+     * <strong>Params:</strong>
+     * <ul>
+     * <li> Slot server</li>
+     * <li> Slot multiplier type</li>
+     * <li> Multiplier ID</li>
+     * <li> Name of the server taking the slot</li>
+     * <li> Time in millis when the lease expires</li>
+     * </ul>
+     */
+    CREATE_MULTIPLIER_LEASE("INSERT INTO `" + SQLDatabase.LEASES_TABLE + "` (`server`, `type`, `multiplier_id`, `owner`, `expires`) VALUES (?, ?, ?, ?, ?);", ParameterType.LOWERCASE_STRING, ParameterType.STRING, ParameterType.INT, ParameterType.LOWERCASE_STRING, ParameterType.LONG),
+    /**
+     * Release the activation slot held by a multiplier.
+     * </br>
+     * <strong>Params:</strong>
+     * <ul>
+     * <li> Multiplier ID</li>
+     * </ul>
+     */
+    RELEASE_MULTIPLIER_LEASE("UPDATE `" + SQLDatabase.LEASES_TABLE + "` SET expires = 0 WHERE multiplier_id = ?;", ParameterType.INT),
+    /**
+     * Create the table used as transaction ledger, every balance change is stored as a new row, changes made by the
+     * same operation share the transaction id.
+     */
+    CREATE_LEDGER_TABLE("CREATE TABLE IF NOT EXISTS `" + SQLDatabase.LEDGER_TABLE + "` " +
+            "(`tx` VARCHAR(36) NOT NULL, `leg` INTEGER NOT NULL, `uuid` VARCHAR(50) NOT NULL, `delta` DOUBLE NOT NULL, `balance` DOUBLE NOT NULL, " +
+            "`cause` VARCHAR(64) NOT NULL, `server` VARCHAR(50) NOT NULL, `time` BIGINT NOT NULL, PRIMARY KEY (`tx`, `leg`));"),
+    /**
+     * Index to lookup the ledger entries of a player.
+     */
+    CREATE_LEDGER_INDEX("CREATE INDEX `" + SQLDatabase.LEDGER_TABLE + "_uuid` ON `" + SQLDatabase.LEDGER_TABLE + "` (`uuid`, `time`);");
 
     private final String query;
+    private final ParameterType[] parameters;
 
-    SQLQuery(String query) {
+    SQLQuery(String query, ParameterType... parameters) {
         this.query = query;
+        this.parameters = parameters;
     }
 
     public String getQuery() {
         return query;
     }
+
+    /**
+     * Bind the parameters for this query to a statement, using the types declared for this query.
+     *
+     * @param ps     statement prepared with {@link #getQuery()}.
+     * @param values values for the parameters, in the same order as they appear in the query.
+     * @throws SQLException if the amount of values isn't the expected or a value can't be bound.
+     */
+    void bind(PreparedStatement ps, Object... values) throws SQLException {
+        if (values.length != parameters.length) {
+            throw new SQLException("Query " + name() + " expects " + parameters.length + " parameters but got " + values.length);
+        }
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i].bind(ps, i + 1, values[i]);
+        }
+    }
 }
@@ -0,0 +1,200 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.storage.sql;
+
+import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Single writer for SQLite databases. SQLite only allows one writer at a time, so instead of letting every thread
+ * fight for the database lock all writes are queued and executed by a single thread, which groups all writes waiting
+ * in the queue in a single transaction. Every write runs in his own savepoint, so a failed write doesn't rollback the
+ * other writes in the same transaction, and callers wait until the transaction is committed.
+ *
+ * @author Beelzebu
+ */
+final class SQLiteWriter {
+
+    private static final int MAX_BATCH = 256;
+    private static final long WRITE_TIMEOUT_SECONDS = 30;
+    private final HikariDataSource dataSource;
+    private final BlockingQueue<PendingWrite<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /**
+     * @param dataSource pool used by the writer, it should have a single connection because only this writer uses it.
+     */
+    SQLiteWriter(HikariDataSource dataSource) {
+        this.dataSource = dataSource;
+        writer = new Thread(this::writeLoop, "Coins SQLite Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Execute a write in the writer thread and wait until it is committed.
+     *
+     * @param write write to execute, it must not commit or rollback the connection.
+     * @param <T>   type of the result of the write.
+     * @return result of the write.
+     * @throws SQLException if the write or the commit fail.
+     */
+    <T> T execute(Write<T> write) throws SQLException {
+        if (Thread.currentThread() == writer) {
+            throw new IllegalStateException("Can't queue a write from the SQLite writer thread");
+        }
+        if (!running) {
+            throw new SQLException("SQLite writer was closed");
+        }
+        PendingWrite<T> pending = new PendingWrite<>(write);
+        queue.add(pending);
+        if (!running && queue.remove(pending)) { // closed while queueing, the writer may have finished already
+            throw new SQLException("SQLite writer was closed");
+        }
+        try {
+            return pending.result.get(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SQLException) {
+                throw (SQLException) ex.getCause();
+            }
+            throw new SQLException("SQLite write failed", ex.getCause());
+        } catch (TimeoutException ex) {
+            if (queue.remove(pending)) {
+                throw new SQLTimeoutException("SQLite write wasn't executed after " + WRITE_TIMEOUT_SECONDS + " seconds", ex);
+            }
+            throw new SQLTimeoutException("SQLite write didn't finish after " + WRITE_TIMEOUT_SECONDS + " seconds, it may be committed later", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a SQLite write", ex);
+        }
+    }
+
+    /**
+     * Execute all queued writes and close the pool used by this writer.
+     */
+    void close() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        failQueued();
+        dataSource.close();
+    }
+
+    private void writeLoop() {
+        List<PendingWrite<?>> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                write(batch);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+        failQueued();
+    }
+
+    private void failQueued() {
+        PendingWrite<?> pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.completeExceptionally(new SQLException("SQLite writer was closed"));
+        }
+    }
+
+    private void write(List<PendingWrite<?>> batch) {
+        List<PendingWrite<?>> written = new ArrayList<>(batch.size());
+        try (Connection c = dataSource.getConnection()) {
+            c.setAutoCommit(false);
+            try {
+                for (PendingWrite<?> pending : batch) {
+                    Savepoint savepoint = c.setSavepoint();
+                    try {
+                        pending.apply(c);
+                        c.releaseSavepoint(savepoint);
+                        written.add(pending);
+                    } catch (SQLException | RuntimeException ex) {
+                        c.rollback(savepoint);
+                        pending.result.completeExceptionally(ex);
+                    }
+                }
+                c.commit();
+            } catch (SQLException ex) {
+                c.rollback();
+                throw ex;
+            } finally {
+                c.setAutoCommit(true);
+            }
+            written.forEach(PendingWrite::complete);
+        } catch (SQLException | RuntimeException ex) {
+            batch.forEach(pending -> pending.result.completeExceptionally(ex)); // no effect on already failed writes
+        }
+    }
+
+    /**
+     * Write executed by the SQLite writer with a connection that is in a transaction.
+     *
+     * @param <T> type of the result.
+     */
+    @FunctionalInterface
+    interface Write<T> {
+
+        T apply(Connection c) throws SQLException;
+    }
+
+    private static final class PendingWrite<T> {
+
+        private final Write<T> write;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private T value;
+
+        private PendingWrite(Write<T> write) {
+            this.write = write;
+        }
+
+        private void apply(Connection c) throws SQLException {
+            value = write.apply(c);
+        }
+
+        private void complete() {
+            result.complete(value);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append lines to a file from a background thread, lines are stored in a bounded ring buffer so threads logging
+ * messages never wait for disk I/O, when the buffer is full new lines are discarded and counted. The file is opened
+ * once by the writer thread and kept open until this appender is closed.
+ *
+ * @author Beelzebu
+ */
+public final class AsyncFileAppender implements AutoCloseable {
+
+    private static final int DRAIN_BATCH = 256;
+    private final File file;
+    private final BlockingQueue<String> buffer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    public AsyncFileAppender(File file, int capacity) {
+        this.file = file;
+        buffer = new ArrayBlockingQueue<>(capacity);
+        writerThread = new Thread(this::writeLoop, "Coins Debug Writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Add a line to the buffer, this method never blocks.
+     *
+     * @param line line to write in the file.
+     * @return <i>true</i> if the line was added, <i>false</i> if the buffer is full or this appender was closed.
+     */
+    public boolean append(String line) {
+        if (!running || !buffer.offer(line)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the amount of lines discarded because the buffer was full since the last write to the file.
+     *
+     * @return amount of discarded lines.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Check if this appender is still accepting lines.
+     *
+     * @return <i>true</i> if lines can be appended, <i>false</i> if this appender was closed or the file can't be
+     * opened.
+     */
+    public boolean isOpen() {
+        return running;
+    }
+
+    /**
+     * Stop the writer thread after writing all lines in the buffer.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<String> lines = new ArrayList<>(DRAIN_BATCH);
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            while (running || !buffer.isEmpty()) {
+                try {
+                    String first = buffer.poll(500, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    lines.add(first);
+                    buffer.drainTo(lines, DRAIN_BATCH - 1);
+                    write(writer, lines);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } finally {
+                    lines.clear();
+                }
+            }
+        } catch (IOException ex) {
+            running = false;
+            Logger.getLogger(AsyncFileAppender.class.getName()).log(Level.WARNING, "Can't open the debug file " + file, ex);
+        }
+    }
+
+    private void write(BufferedWriter writer, List<String> lines) {
+        try {
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                writer.write("[" + lost + " debug messages were discarded because the buffer was full]");
+                writer.newLine();
+            }
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+            writer.flush();
+        } catch (IOException ex) {
+            Logger.getLogger(AsyncFileAppender.class.getName()).log(Level.WARNING, "Can't write to the debug file " + file, ex);
+        }
+    }
+}
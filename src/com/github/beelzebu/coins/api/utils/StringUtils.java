@@ -38,7 +38,7 @@ public final class StringUtils {
             return "";
         }
         if (CoinsAPI.getPlugin() != null) {
-            msg = msg.replace("%prefix%", CoinsAPI.getPlugin().getConfig().getString("Prefix", "&c&lCoins &6&l>&7"));
+            msg = msg.replace("%prefix%", CoinsAPI.getPlugin().getConfig().getPrefix());
         }
         return msg.replace('&', COLOR_CHAR);
     }
@@ -19,15 +19,172 @@
 package com.github.beelzebu.coins.api.utils;
 
 import com.github.beelzebu.coins.api.CoinsAPI;
-import java.util.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
 
 /**
+ * Resolve names and UUIDs of players, resolved values are kept in a bounded cache shared by the API and storage
+ * providers, so the same names aren't requested again and again to the plugin or the database. The cache is updated
+ * every time that a player is created or updated in the storage.
+ *
  * @author Beelzebu
  */
 public final class UUIDUtil {
 
+    private static final long MAX_CACHED_PLAYERS = 10000;
+    private static final long EXPIRE_MINUTES = 30;
+    private static final Cache<String, UUID> UUIDS = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_PLAYERS).expireAfterWrite(EXPIRE_MINUTES, TimeUnit.MINUTES).build();
+    private static final Cache<UUID, String> NAMES = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_PLAYERS).expireAfterWrite(EXPIRE_MINUTES, TimeUnit.MINUTES).build();
+
+    private UUIDUtil() {
+    }
+
+    /**
+     * Get the UUID of a player by his name, looking in the cache, online players and the database.
+     *
+     * @param name name of the player.
+     * @return UUID of the player or null if it can't be found.
+     */
     public static UUID getUniqueId(String name) {
-        return Optional.ofNullable(CoinsAPI.getPlugin().getUniqueId(name, false)).orElse(CoinsAPI.getPlugin().getUniqueId(name, true));
+        return getUniqueId(name, true);
+    }
+
+    /**
+     * Get the UUID of a player by his name.
+     *
+     * @param name   name of the player.
+     * @param fromdb if the database should be used when the UUID isn't cached and the player is offline.
+     * @return UUID of the player or null if it can't be found.
+     */
+    public static UUID getUniqueId(String name, boolean fromdb) {
+        if (name == null) {
+            return null;
+        }
+        UUID uuid = UUIDS.getIfPresent(name.toLowerCase());
+        if (uuid != null) {
+            return uuid;
+        }
+        uuid = CoinsAPI.getPlugin().getUniqueId(name, false);
+        if (uuid == null && fromdb) {
+            uuid = CoinsAPI.getPlugin().getUniqueId(name, true);
+        }
+        if (uuid != null) {
+            update(uuid, name);
+        }
+        return uuid;
+    }
+
+    /**
+     * Get the name of a player by his UUID, looking in the cache, online players and the database.
+     *
+     * @param uuid UUID of the player.
+     * @return name of the player or null if it can't be found.
+     */
+    public static String getName(UUID uuid) {
+        return getName(uuid, true);
+    }
+
+    /**
+     * Get the name of a player by his UUID.
+     *
+     * @param uuid   UUID of the player.
+     * @param fromdb if the database should be used when the name isn't cached and the player is offline.
+     * @return name of the player or null if it can't be found.
+     */
+    public static String getName(UUID uuid, boolean fromdb) {
+        if (uuid == null) {
+            return null;
+        }
+        String name = NAMES.getIfPresent(uuid);
+        if (name != null) {
+            return name;
+        }
+        name = CoinsAPI.getPlugin().getName(uuid, false);
+        if (name == null && fromdb) {
+            name = CoinsAPI.getPlugin().getName(uuid, true);
+        }
+        if (name != null) {
+            update(uuid, name);
+        }
+        return name;
+    }
+
+    /**
+     * Get the names of many players at once, names that aren't cached or from online players are requested to the
+     * storage in a single batch.
+     *
+     * @param uuids UUIDs of the players.
+     * @return map with the name of every player that was found.
+     */
+    public static Map<UUID, String> getNames(@Nonnull Collection<UUID> uuids) {
+        Map<UUID, String> names = new HashMap<>(uuids.size());
+        Set<UUID> missing = new LinkedHashSet<>();
+        for (UUID uuid : uuids) {
+            String name = getName(uuid, false);
+            if (name != null) {
+                names.put(uuid, name);
+            } else if (uuid != null) {
+                missing.add(uuid);
+            }
+        }
+        if (!missing.isEmpty()) {
+            CoinsAPI.getPlugin().getStorageProvider().getNames(missing).forEach((uuid, name) -> {
+                update(uuid, name);
+                names.put(uuid, name);
+            });
+        }
+        return names;
+    }
+
+    /**
+     * Cache the current name and UUID of a player, removing any previous mapping for the old name or UUID. This should
+     * be called every time that a player logs in or is updated in the storage.
+     *
+     * @param uuid UUID of the player.
+     * @param name current name of the player.
+     */
+    public static void update(@Nonnull UUID uuid, @Nonnull String name) {
+        String key = name.toLowerCase();
+        String oldName = NAMES.getIfPresent(uuid);
+        if (oldName != null && !oldName.equalsIgnoreCase(name)) {
+            UUIDS.asMap().remove(oldName.toLowerCase(), uuid);
+        }
+        UUID oldUUID = UUIDS.getIfPresent(key);
+        if (oldUUID != null && !Objects.equals(oldUUID, uuid)) {
+            NAMES.asMap().remove(oldUUID, key);
+            NAMES.asMap().remove(oldUUID, name);
+        }
+        UUIDS.put(key, uuid);
+        NAMES.put(uuid, name);
+    }
+
+    /**
+     * Remove a player from the cache.
+     *
+     * @param uuid UUID of the player.
+     */
+    public static void invalidate(@Nonnull UUID uuid) {
+        String name = NAMES.getIfPresent(uuid);
+        NAMES.invalidate(uuid);
+        if (name != null) {
+            UUIDS.asMap().remove(name.toLowerCase(), uuid);
+        }
+    }
+
+    /**
+     * Remove all cached players.
+     */
+    public static void clear() {
+        UUIDS.invalidateAll();
+        NAMES.invalidateAll();
     }
 }
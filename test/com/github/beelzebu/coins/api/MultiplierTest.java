@@ -0,0 +1,152 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api;
+
+import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import java.util.UUID;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the json adapters of {@link Multiplier} and {@link MultiplierData} against the json written with reflection
+ * by older versions.
+ *
+ * @author Beelzebu
+ */
+public class MultiplierTest {
+
+    private static final Gson REFLECTIVE_GSON = new Gson();
+    private static final JsonParser PARSER = new JsonParser();
+    private static final UUID ENABLER = UUID.fromString("9a7f3e1c-5d2b-4c8e-a1f0-6b3d2e4c5a7f");
+
+    @Test
+    public void writesSameFieldsAsReflectiveGson() {
+        Multiplier multiplier = Multiplier.builder().setId(3).setServer("lobby").setData(new MultiplierData(ENABLER, "beelzebu", 2, 30, MultiplierType.PERSONAL)).build(false);
+        JsonObject written = toTree(CoinsPlugin.GSON.toJson(multiplier));
+        assertEquals("IDLE", written.remove("status").getAsString());
+        assertEquals(toTree(REFLECTIVE_GSON.toJson(legacyMultiplier(0, 0))), written);
+    }
+
+    @Test
+    public void readsReflectiveJson() {
+        Multiplier multiplier = CoinsPlugin.GSON.fromJson(REFLECTIVE_GSON.toJson(legacyMultiplier(1234, 0)), Multiplier.class);
+        assertEquals(3, multiplier.getId());
+        assertEquals("lobby", multiplier.getServer());
+        assertEquals(1234, multiplier.getStart());
+        assertEquals(ENABLER, multiplier.getData().getEnablerUUID());
+        assertEquals("beelzebu", multiplier.getData().getEnablerName());
+        assertEquals(2, multiplier.getData().getAmount());
+        assertEquals(30, multiplier.getData().getMinutes());
+        assertEquals(MultiplierType.PERSONAL, multiplier.getData().getType());
+        assertEquals("ENABLED", status(multiplier));
+        Multiplier queued = CoinsPlugin.GSON.fromJson(REFLECTIVE_GSON.toJson(legacyMultiplier(0, 99)), Multiplier.class);
+        assertTrue(queued.isQueue());
+        assertEquals(99, queued.getQueueStart());
+    }
+
+    @Test
+    public void roundTripKeepsAllFields() {
+        String json = "{\"id\":5,\"server\":\"survival\",\"data\":{\"enablerUUID\":\"" + ENABLER + "\",\"enablerName\":\"beelzebu\"," +
+                "\"amount\":3,\"minutes\":10,\"type\":\"SERVER\"},\"status\":\"EXPIRED\",\"start\":100,\"queueStart\":50}";
+        Multiplier multiplier = CoinsPlugin.GSON.fromJson(json, Multiplier.class);
+        assertTrue(multiplier.isExpired());
+        assertFalse(multiplier.isQueue());
+        assertEquals(toTree(json), toTree(CoinsPlugin.GSON.toJson(multiplier)));
+        assertEquals(toTree(json), toTree(CoinsPlugin.GSON.toJson(CoinsPlugin.GSON.fromJson(CoinsPlugin.GSON.toJson(multiplier), Multiplier.class))));
+    }
+
+    @Test
+    public void unknownStatusFallsBackToTimestamps() {
+        assertEquals("ENABLED", status(withStatus("PAUSED", 100, 50)));
+        assertEquals("QUEUED", status(withStatus("PAUSED", 0, 50)));
+        assertEquals("IDLE", status(withStatus("PAUSED", 0, 0)));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void unknownTypeIsRejected() {
+        JsonObject json = toTree(REFLECTIVE_GSON.toJson(legacyMultiplier(0, 0)));
+        json.getAsJsonObject("data").addProperty("type", "NETWORK");
+        CoinsPlugin.GSON.fromJson(json.toString(), Multiplier.class);
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void missingDataIsRejected() {
+        CoinsPlugin.GSON.fromJson("{\"id\":1,\"server\":\"lobby\"}", Multiplier.class);
+    }
+
+    private static Multiplier withStatus(String status, long start, long queueStart) {
+        JsonObject json = toTree(REFLECTIVE_GSON.toJson(legacyMultiplier(start, queueStart)));
+        json.addProperty("status", status);
+        return CoinsPlugin.GSON.fromJson(json.toString(), Multiplier.class);
+    }
+
+    private static String status(Multiplier multiplier) {
+        return toTree(CoinsPlugin.GSON.toJson(multiplier)).get("status").getAsString();
+    }
+
+    private static JsonObject toTree(String json) {
+        return PARSER.parse(json).getAsJsonObject();
+    }
+
+    private static LegacyMultiplier legacyMultiplier(long start, long queueStart) {
+        LegacyMultiplier multiplier = new LegacyMultiplier();
+        multiplier.id = 3;
+        multiplier.server = "lobby";
+        multiplier.data = new LegacyMultiplierData();
+        multiplier.data.enablerUUID = ENABLER;
+        multiplier.data.enablerName = "beelzebu";
+        multiplier.data.amount = 2;
+        multiplier.data.minutes = 30;
+        multiplier.data.type = MultiplierType.PERSONAL;
+        multiplier.start = start;
+        multiplier.queueStart = queueStart;
+        return multiplier;
+    }
+
+    /**
+     * Same fields as {@link Multiplier} had when it was serialized with reflection.
+     */
+    private static final class LegacyMultiplier {
+
+        private int id;
+        private String server;
+        private LegacyMultiplierData data;
+        private long start;
+        private long queueStart;
+    }
+
+    /**
+     * Same fields as {@link MultiplierData} had when it was serialized with reflection.
+     */
+    private static final class LegacyMultiplierData {
+
+        private UUID enablerUUID;
+        private String enablerName;
+        private int amount;
+        private int minutes;
+        private MultiplierType type;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.cache.redis;
+
+import com.github.beelzebu.coins.api.Multiplier;
+import com.github.beelzebu.coins.api.MultiplierData;
+import com.github.beelzebu.coins.api.MultiplierType;
+import com.github.beelzebu.coins.api.cache.BalanceUpdate;
+import com.github.beelzebu.coins.api.plugin.CoinsBootstrap;
+import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link RedisCacheProvider} and {@link SocketRedisClient} against a {@link RespServer}.
+ *
+ * @author Beelzebu
+ */
+public class RedisCacheProviderTest {
+
+    private static final double NO_FLOOR = -Double.MAX_VALUE;
+    private RespServer server;
+    private SocketRedisClient client;
+    private RedisCacheProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new RespServer();
+        client = new SocketRedisClient("127.0.0.1", server.getPort(), "", 0, 2000);
+        provider = new RedisCacheProvider(plugin(), client, "coins:", 2000);
+        provider.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        provider.stop();
+        server.close();
+    }
+
+    @Test
+    public void updatedBalanceIsReadBack() {
+        UUID uuid = UUID.randomUUID();
+        assertFalse(provider.getCoins(uuid).isPresent());
+        provider.updatePlayer(uuid, 10.5);
+        assertEquals(10.5, provider.getCoins(uuid).getAsDouble(), 0);
+        assertTrue(provider.getPlayers().contains(uuid));
+        provider.removePlayer(uuid);
+        assertFalse(provider.getCoins(uuid).isPresent());
+        assertFalse(provider.getPlayers().contains(uuid));
+    }
+
+    @Test
+    public void concurrentAddsAreNeverLost() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        provider.updatePlayer(uuid, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 100; j++) {
+                        provider.addCoins(uuid, 1, NO_FLOOR);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(800, provider.getCoins(uuid).getAsDouble(), 0);
+    }
+
+    @Test
+    public void addBelowFloorIsRejected() {
+        UUID uuid = UUID.randomUUID();
+        provider.updatePlayer(uuid, 5);
+        BalanceUpdate rejected = provider.addCoins(uuid, -10, 0);
+        assertEquals(BalanceUpdate.Status.REJECTED, rejected.getStatus());
+        assertEquals(5, rejected.getBalance(), 0);
+        assertEquals(5, provider.getCoins(uuid).getAsDouble(), 0);
+        BalanceUpdate updated = provider.addCoins(uuid, -5, 0);
+        assertEquals(BalanceUpdate.Status.UPDATED, updated.getStatus());
+        assertEquals(0, updated.getBalance(), 0);
+        assertEquals(0, provider.getCoins(uuid).getAsDouble(), 0);
+    }
+
+    @Test
+    public void addToUncachedPlayerIsNotCached() {
+        UUID uuid = UUID.randomUUID();
+        assertEquals(BalanceUpdate.Status.NOT_CACHED, provider.addCoins(uuid, 1, NO_FLOOR).getStatus());
+        assertFalse(provider.getCoins(uuid).isPresent());
+    }
+
+    @Test
+    public void addIsUnknownWhenServerFails() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        provider.updatePlayer(uuid, 1);
+        server.close();
+        assertEquals(BalanceUpdate.Status.UNKNOWN, provider.addCoins(uuid, 1, NO_FLOOR).getStatus());
+    }
+
+    @Test
+    public void addIsUnknownWhenItTimesOut() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        provider.updatePlayer(uuid, 1);
+        RedisCacheProvider slowProvider = new RedisCacheProvider(plugin(), new SocketRedisClient("127.0.0.1", server.getPort(), "", 0, 5000), "coins:", 100);
+        slowProvider.start();
+        try {
+            server.pause();
+            assertEquals(BalanceUpdate.Status.UNKNOWN, slowProvider.addCoins(uuid, 1, NO_FLOOR).getStatus());
+            server.resume();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (provider.getCoins(uuid).getAsDouble() != 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, provider.getCoins(uuid).getAsDouble(), 0); // the script was still executed
+        } finally {
+            slowProvider.stop();
+        }
+    }
+
+    @Test
+    public void scriptIsSentAgainWhenServerForgetsIt() {
+        UUID uuid = UUID.randomUUID();
+        provider.updatePlayer(uuid, 1);
+        server.flushScripts();
+        assertEquals(3, provider.addCoins(uuid, 2, NO_FLOOR).getBalance(), 0);
+        assertEquals(4, provider.addCoins(uuid, 1, NO_FLOOR).getBalance(), 0); // loaded again by EVAL
+    }
+
+    @Test
+    public void multipliersAreIndexedByLowercaseServer() {
+        Multiplier multiplier = Multiplier.builder().setId(7).setServer("Lobby").setData(new MultiplierData(2, 10, MultiplierType.SERVER)).build(false);
+        provider.addMultiplier(multiplier);
+        assertTrue(server.getSet("coins:multipliers:server:lobby").contains("7"));
+        assertTrue(server.getSet("coins:multipliers").contains("7"));
+        provider.deleteMultiplier(7);
+        assertFalse(server.getSet("coins:multipliers:server:lobby").contains("7"));
+        assertFalse(server.getSet("coins:multipliers").contains("7"));
+    }
+
+    @Test
+    public void errorRepliesDontFailOtherCommands() {
+        List<Object> replies = client.pipeline(Arrays.asList(
+                new String[]{"SET", "key", "value"},
+                new String[]{"UNKNOWN"},
+                new String[]{"GET", "key"},
+                new String[]{"GET", "missing"}));
+        assertEquals("OK", replies.get(0));
+        assertTrue(replies.get(1) instanceof RedisException);
+        assertEquals("value", replies.get(2));
+        assertNull(replies.get(3));
+    }
+
+    /**
+     * Plugin that ignores all calls, the provider only uses it to log.
+     */
+    @SuppressWarnings("unchecked")
+    private static CoinsPlugin<CoinsBootstrap> plugin() {
+        return (CoinsPlugin<CoinsBootstrap>) Proxy.newProxyInstance(CoinsPlugin.class.getClassLoader(), new Class<?>[]{CoinsPlugin.class},
+                (proxy, method, args) -> method.getReturnType() == boolean.class ? false : null);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.cache.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link RedisPipeline} groups commands from many threads in a single pipeline.
+ *
+ * @author Beelzebu
+ */
+public class RedisPipelineTest {
+
+    @Test
+    public void queuedCommandsShareOnePipeline() throws Exception {
+        CountDownLatch firstSent = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> pipelines = Collections.synchronizedList(new ArrayList<>());
+        RedisClient client = new RedisClient() {
+            @Override
+            public List<Object> pipeline(@Nonnull List<String[]> commands) {
+                pipelines.add(commands.size());
+                if (pipelines.size() == 1) { // hold the sender so the other commands are queued
+                    firstSent.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return commands.stream().map(command -> (Object) command[1]).collect(Collectors.toList());
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        RedisPipeline pipeline = new RedisPipeline(client, 5000);
+        try {
+            Thread first = new Thread(() -> pipeline.call("GET", "first"));
+            first.start();
+            assertTrue(firstSent.await(5, TimeUnit.SECONDS));
+            Object[] replies = new Object[10];
+            Thread[] threads = new Thread[replies.length];
+            for (int i = 0; i < threads.length; i++) {
+                int index = i;
+                threads[i] = new Thread(() -> replies[index] = pipeline.call("GET", "key" + index));
+                threads[i].start();
+            }
+            for (Thread thread : threads) { // waiting for the reply, so the command is queued
+                while (thread.getState() != Thread.State.TIMED_WAITING) {
+                    Thread.sleep(1);
+                }
+            }
+            release.countDown();
+            first.join();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(Arrays.asList(1, 10), pipelines);
+            for (int i = 0; i < replies.length; i++) {
+                assertEquals("key" + i, replies[i]);
+            }
+        } finally {
+            pipeline.close();
+        }
+    }
+}
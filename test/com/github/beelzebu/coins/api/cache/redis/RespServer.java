@@ -0,0 +1,303 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.cache.redis;
+
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * In-process stand-in for a Redis server that speaks the RESP protocol, it only supports the commands used by
+ * {@link RedisCacheProvider} and runs the add coins script natively, so tests don't need a real Redis server.
+ *
+ * @author Beelzebu
+ */
+final class RespServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final Map<String, String> strings = new HashMap<>();
+    private final Map<String, Set<String>> sets = new HashMap<>();
+    private final Map<String, Map<String, String>> hashes = new HashMap<>();
+    private final Set<String> scripts = new HashSet<>();
+    private final List<Socket> clients = Collections.synchronizedList(new ArrayList<>());
+    private volatile int commands = 0;
+    private volatile CountDownLatch paused = null;
+
+    RespServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "RESP Server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Get the amount of commands executed by this server.
+     */
+    int getCommands() {
+        return commands;
+    }
+
+    synchronized String getString(String key) {
+        return strings.get(key);
+    }
+
+    synchronized Set<String> getSet(String key) {
+        return new HashSet<>(sets.getOrDefault(key, Collections.emptySet()));
+    }
+
+    /**
+     * Stop replying until {@link #resume()} is called, commands received meanwhile are executed when resumed, like a
+     * slow server.
+     */
+    void pause() {
+        paused = new CountDownLatch(1);
+    }
+
+    void resume() {
+        CountDownLatch latch = paused;
+        paused = null;
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Forget all loaded scripts, like {@code SCRIPT FLUSH} or a restart of the server.
+     */
+    synchronized void flushScripts() {
+        scripts.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        resume();
+        serverSocket.close();
+        synchronized (clients) {
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                clients.add(client);
+                Thread handler = new Thread(() -> handle(client), "RESP Client");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        try (Socket socket = client) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (true) {
+                String[] command = readCommand(in);
+                CountDownLatch latch = paused;
+                if (latch != null) {
+                    latch.await();
+                }
+                writeReply(out, execute(command));
+                if (in.available() == 0) { // reply to the whole pipeline at once
+                    out.flush();
+                }
+            }
+        } catch (IOException ignore) { // client disconnected
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized Object execute(String[] command) {
+        commands++;
+        String[] args = Arrays.copyOfRange(command, 1, command.length);
+        switch (command[0].toUpperCase()) {
+            case "PING":
+                return "PONG";
+            case "AUTH":
+            case "SELECT":
+                return "OK";
+            case "GET":
+                return strings.get(args[0]);
+            case "SET":
+                strings.put(args[0], args[1]);
+                return "OK";
+            case "DEL": {
+                long removed = 0;
+                for (String key : args) {
+                    if (strings.remove(key) != null | sets.remove(key) != null | hashes.remove(key) != null) {
+                        removed++;
+                    }
+                }
+                return removed;
+            }
+            case "SADD": {
+                Set<String> set = sets.computeIfAbsent(args[0], key -> new LinkedHashSet<>());
+                return Arrays.stream(args, 1, args.length).filter(set::add).count();
+            }
+            case "SREM": {
+                Set<String> set = sets.getOrDefault(args[0], new HashSet<>());
+                return Arrays.stream(args, 1, args.length).filter(set::remove).count();
+            }
+            case "SMEMBERS":
+                return new ArrayList<Object>(sets.getOrDefault(args[0], Collections.emptySet()));
+            case "SUNION": {
+                Set<Object> union = new LinkedHashSet<>();
+                for (String key : args) {
+                    union.addAll(sets.getOrDefault(key, Collections.emptySet()));
+                }
+                return new ArrayList<>(union);
+            }
+            case "HMSET": {
+                Map<String, String> hash = hashes.computeIfAbsent(args[0], key -> new HashMap<>());
+                for (int i = 1; i + 1 < args.length; i += 2) {
+                    hash.put(args[i], args[i + 1]);
+                }
+                return "OK";
+            }
+            case "HGET":
+                return hashes.getOrDefault(args[0], Collections.emptyMap()).get(args[1]);
+            case "SCRIPT":
+                if (args[0].equalsIgnoreCase("LOAD")) {
+                    String sha = sha1(args[1]);
+                    scripts.add(sha);
+                    return sha;
+                }
+                return new RedisException("ERR unknown SCRIPT subcommand");
+            case "EVALSHA":
+                if (!scripts.contains(args[0])) {
+                    return new RedisException("NOSCRIPT No matching script. Please use EVAL.");
+                }
+                return addCoins(args);
+            case "EVAL":
+                scripts.add(sha1(args[0]));
+                return addCoins(args);
+            default:
+                return new RedisException("ERR unknown command '" + command[0] + "'");
+        }
+    }
+
+    /**
+     * Same as the add coins script of {@link RedisCacheProvider}.
+     */
+    private Object addCoins(String[] args) {
+        String key = args[2];
+        String current = strings.get(key);
+        if (current == null) {
+            return null;
+        }
+        double updated = Double.parseDouble(current) + Double.parseDouble(args[3]);
+        if (updated < Double.parseDouble(args[4])) {
+            return Arrays.<Object>asList(0L, current);
+        }
+        String balance = String.valueOf(updated);
+        strings.put(key, balance);
+        return Arrays.<Object>asList(1L, balance);
+    }
+
+    private String sha1(String script) {
+        return Hashing.sha1().hashString(script, StandardCharsets.UTF_8).toString();
+    }
+
+    private String[] readCommand(InputStream in) throws IOException {
+        String header = readLine(in);
+        if (!header.startsWith("*")) {
+            throw new IOException("Expected an array but got: " + header);
+        }
+        String[] command = new String[Integer.parseInt(header.substring(1))];
+        for (int i = 0; i < command.length; i++) {
+            int length = Integer.parseInt(readLine(in).substring(1));
+            byte[] bytes = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int count = in.read(bytes, read, length - read);
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                read += count;
+            }
+            readLine(in);
+            command[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return command;
+    }
+
+    private String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int previous = -1;
+        int current;
+        while ((current = in.read()) != -1) {
+            if (previous == '\r' && current == '\n') {
+                byte[] bytes = line.toByteArray();
+                return new String(bytes, 0, bytes.length - 1, StandardCharsets.UTF_8);
+            }
+            line.write(current);
+            previous = current;
+        }
+        throw new EOFException();
+    }
+
+    private void writeReply(OutputStream out, Object reply) throws IOException {
+        if (reply == null) {
+            out.write("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof RedisException) {
+            out.write(("-" + ((RedisException) reply).getMessage() + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof Long) {
+            out.write((":" + reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof List) {
+            out.write(("*" + ((List<?>) reply).size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (Object element : (List<?>) reply) {
+                writeReply(out, element);
+            }
+        } else {
+            byte[] bytes = reply.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(bytes);
+            out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.executor;
+
+import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the json adapter of {@link Executor} against the json written with reflection by older versions.
+ *
+ * @author Beelzebu
+ */
+public class ExecutorTest {
+
+    private static final Gson REFLECTIVE_GSON = new Gson();
+    private static final JsonParser PARSER = new JsonParser();
+
+    @Test
+    public void writesSameJsonAsReflectiveGson() {
+        List<String> commands = Arrays.asList("give %player% diamond 1", "say %player% bought a diamond");
+        Executor executor = new Executor("diamond", "Diamond", 25.5, commands);
+        assertEquals(PARSER.parse(REFLECTIVE_GSON.toJson(legacyExecutor(commands))), PARSER.parse(CoinsPlugin.GSON.toJson(executor)));
+        assertEquals(PARSER.parse(REFLECTIVE_GSON.toJson(legacyExecutor(commands))), executor.toJson());
+        assertEquals(PARSER.parse(REFLECTIVE_GSON.toJson(legacyExecutor(null))), Executor.toJson(new Executor("diamond", "Diamond", 25.5, null)));
+    }
+
+    @Test
+    public void readsReflectiveJson() {
+        List<String> commands = Arrays.asList("give %player% diamond 1", "say %player% bought a diamond");
+        Executor executor = Executor.fromJson(REFLECTIVE_GSON.toJson(legacyExecutor(commands)));
+        assertEquals("diamond", executor.getId());
+        assertEquals("Diamond", executor.getDisplayname());
+        assertEquals(25.5, executor.getCost(), 0);
+        assertEquals(commands, executor.getCommands());
+        assertNull(Executor.fromJson(REFLECTIVE_GSON.toJson(legacyExecutor(null))).getCommands());
+    }
+
+    @Test
+    public void roundTripKeepsAllFields() {
+        Executor executor = new Executor("vip", "VIP Rank", 1000, Arrays.asList("lp user %player% parent add vip"));
+        Executor read = Executor.fromJson(CoinsPlugin.GSON.toJson(executor));
+        assertEquals(executor.getId(), read.getId());
+        assertEquals(executor.getDisplayname(), read.getDisplayname());
+        assertEquals(executor.getCost(), read.getCost(), 0);
+        assertEquals(executor.getCommands(), read.getCommands());
+    }
+
+    private static LegacyExecutor legacyExecutor(List<String> commands) {
+        LegacyExecutor executor = new LegacyExecutor();
+        executor.id = "diamond";
+        executor.displayname = "Diamond";
+        executor.cost = 25.5;
+        executor.commands = commands;
+        return executor;
+    }
+
+    /**
+     * Same fields as {@link Executor} had when it was serialized with reflection.
+     */
+    private static final class LegacyExecutor {
+
+        private String id;
+        private String displayname;
+        private double cost;
+        private List<String> commands;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of Coins3
+ *
+ * Copyright © 2019 Beelzebu
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Affero General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.beelzebu.coins.api.messaging;
+
+import com.github.beelzebu.coins.api.plugin.CoinsPlugin;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the json adapter of {@link Message} against the json written with reflection by older versions.
+ *
+ * @author Beelzebu
+ */
+public class MessageTest {
+
+    private static final Gson REFLECTIVE_GSON = new Gson();
+    private static final JsonParser PARSER = new JsonParser();
+
+    @Test
+    public void writesSameJsonAsReflectiveGson() {
+        Message message = new Message(MessageType.USER_UPDATE, data());
+        assertEquals(PARSER.parse(REFLECTIVE_GSON.toJson(legacyMessage())), PARSER.parse(CoinsPlugin.GSON.toJson(message)));
+        assertEquals(PARSER.parse(REFLECTIVE_GSON.toJson(legacyMessage())), message.toJson());
+    }
+
+    @Test
+    public void readsReflectiveJson() {
+        String json = REFLECTIVE_GSON.toJson(legacyMessage());
+        Message message = CoinsPlugin.GSON.fromJson(json, Message.class);
+        assertEquals(MessageType.USER_UPDATE, message.getType());
+        assertEquals(data(), message.getData());
+        Message fromTree = Message.fromJson(PARSER.parse(json).getAsJsonObject());
+        assertEquals(MessageType.USER_UPDATE, fromTree.getType());
+        assertEquals(data(), fromTree.getData());
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void unknownTypeIsRejected() {
+        CoinsPlugin.GSON.fromJson("{\"type\":\"USER_DELETE\",\"data\":{}}", Message.class);
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void unknownTypeIsRejectedFromTree() {
+        Message.fromJson(PARSER.parse("{\"type\":\"USER_DELETE\",\"data\":{}}").getAsJsonObject());
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void missingDataIsRejected() {
+        CoinsPlugin.GSON.fromJson("{\"type\":\"USER_UPDATE\"}", Message.class);
+    }
+
+    private static JsonObject data() {
+        JsonObject data = new JsonObject();
+        data.addProperty("uuid", "9a7f3e1c-5d2b-4c8e-a1f0-6b3d2e4c5a7f");
+        data.addProperty("coins", 10.5);
+        JsonArray servers = new JsonArray();
+        servers.add("lobby");
+        data.add("servers", servers);
+        return data;
+    }
+
+    private static LegacyMessage legacyMessage() {
+        LegacyMessage message = new LegacyMessage();
+        message.type = MessageType.USER_UPDATE;
+        message.data = data();
+        return message;
+    }
+
+    /**
+     * Same fields as {@link Message} had when it was serialized with reflection.
+     */
+    private static final class LegacyMessage {
+
+        private MessageType type;
+        private JsonObject data;
+    }
+}